@@ -0,0 +1,46 @@
+package de.landsh.opendata.catalogproxy;
+
+import java.io.IOException;
+
+/**
+ * Speicher für die Einträge eines {@link CatalogCache}. Der Cache entscheidet, wann ein Eintrag frisch, veraltet oder
+ * abgelaufen ist; der Speicher legt die Einträge nur ab. Ein Speicher kann von mehreren Instanzen des Proxys geteilt
+ * werden (siehe {@link SharedFileCacheStore}). Dann sorgt {@link #tryLock(String)} dafür, dass eine Seite nur von einer
+ * Instanz geladen wird, während die anderen auf deren Ergebnis warten.
+ */
+public interface CacheStore {
+
+    /**
+     * @return the entry with the specified key or <code>null</code>
+     */
+    CatalogCache.Entry get(String key) throws IOException;
+
+    /**
+     * Adds or replaces an entry. Readers see either the old or the new entry, never a partially written one.
+     */
+    void put(String key, CatalogCache.Entry entry) throws IOException;
+
+    /**
+     * Removes all entries that have been produced with other filter rules.
+     *
+     * @param rules {@link FilterRules#getFingerprint()} of the current rules
+     * @return the number of removed entries
+     */
+    int removeOtherRules(String rules) throws IOException;
+
+    /**
+     * Removes the entry that has been created first.
+     */
+    void evictOldest() throws IOException;
+
+    int size() throws IOException;
+
+    /**
+     * Claims the right to load the page with the specified key. A store used by a single instance always grants it.
+     *
+     * @return false if another instance is loading the page
+     */
+    boolean tryLock(String key) throws IOException;
+
+    void unlock(String key) throws IOException;
+}
@@ -0,0 +1,447 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Zwischenspeicher für gefilterte catalog.xml Seiten. Die Semantik folgt RFC 5861: Einträge, deren TTL abgelaufen ist,
+ * werden während der Dauer von <code>staleWhileRevalidate</code> sofort ausgeliefert, während im Hintergrund eine
+ * Aktualisierung läuft. Schlägt eine Aktualisierung fehl, wird die letzte gültige Kopie bis zum Ablauf von
+ * <code>staleIfError</code> weiter ausgeliefert.
+ * <p>
+ * Die Einträge liegen in einem {@link CacheStore}, normalerweise im Speicher. Ist <code>cacheDirectory</code> gesetzt,
+ * teilen sich alle Instanzen des Proxys, die dasselbe Verzeichnis verwenden, die gefilterten Seiten: eine Seite wird
+ * nur von einer Instanz geladen und von den anderen aus dem Verzeichnis gelesen. Jede Seite ist mit dem
+ * {@link FilterRules#getFingerprint()} der Regeln versehen, mit denen sie gefiltert wurde. Instanzen mit
+ * unterschiedlichen Regeln liefern also keine Seiten der anderen aus, sollten sich aber kein Verzeichnis teilen, weil sie
+ * die Seiten der anderen ständig ersetzen.
+ */
+public class CatalogCache implements InitializingBean, DisposableBean {
+
+    static final String WARNING_STALE = "110 - \"Response is Stale\"";
+    static final String WARNING_REVALIDATION_FAILED = "111 - \"Revalidation Failed\"";
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogCache.class);
+
+    private final Map<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Time in seconds a cached page is considered fresh.
+     */
+    @Value("${cacheTTL:300}")
+    long timeToLive;
+
+    /**
+     * Time in seconds after expiry during which a cached page is served immediately while it is refreshed in the
+     * background.
+     */
+    @Value("${staleWhileRevalidate:3600}")
+    long staleWhileRevalidate;
+
+    /**
+     * Time in seconds after expiry during which a cached page is served if the upstream catalog is not available.
+     */
+    @Value("${staleIfError:86400}")
+    long staleIfError;
+
+    @Value("${cacheMaxEntries:1000}")
+    int maxEntries;
+
+    /**
+     * Directory shared with other instances. If empty, the pages are kept in memory.
+     */
+    @Value("${cacheDirectory:}")
+    String cacheDirectory;
+
+    /**
+     * Time in seconds an instance waits for another instance that loads the same page, and after which the lock of
+     * that instance is considered orphaned.
+     */
+    @Value("${cacheLockTimeout:120}")
+    long lockTimeout = 120;
+
+    /**
+     * Time in milliseconds between two checks whether another instance has finished loading a page.
+     */
+    long pollInterval = 200;
+
+    private CacheStore store = new MemoryCacheStore();
+
+    Clock clock = Clock.systemUTC();
+
+    Executor refreshExecutor;
+
+    /**
+     * Fingerprint of the current filter rules, <code>null</code> until it is known.
+     */
+    private volatile String rules;
+
+    /**
+     * Liefert die Seite mit dem angegebenen Schlüssel aus dem Cache oder lädt sie mit Hilfe des Loaders.
+     *
+     * @throws IOException wenn die Seite nicht geladen werden konnte und keine ausreichend aktuelle Kopie vorliegt.
+     */
+    public Result get(String key, Loader loader) throws IOException {
+        final Entry entry = stored(key);
+        final long now = clock.millis();
+
+        if (entry != null) {
+            final long age = now - entry.created;
+            if (age < seconds(timeToLive)) {
+                return new Result(entry, now, null);
+            }
+            if (age < seconds(timeToLive + staleWhileRevalidate)) {
+                refreshInBackground(key, loader, entry);
+                return new Result(entry, now, WARNING_STALE);
+            }
+        }
+
+        try {
+            return new Result(load(key, loader, entry), clock.millis(), null);
+        } catch (IOException e) {
+            if (entry != null && now - entry.created < seconds(timeToLive + staleIfError)) {
+                log.warn("Serving stale copy of {} because the upstream catalog is not available: {}", key, e.toString());
+                return new Result(entry, now, WARNING_REVALIDATION_FAILED);
+            }
+            throw e;
+        }
+    }
+
+    private static long seconds(long value) {
+        return TimeUnit.SECONDS.toMillis(value);
+    }
+
+    /**
+     * @return the stored entry or <code>null</code> if there is none that has been produced with the current rules
+     */
+    private Entry stored(String key) {
+        try {
+            final Entry entry = store.get(key);
+            final String current = rules;
+            return entry == null || current != null && !current.equals(entry.content.getRules()) ? null : entry;
+        } catch (IOException e) {
+            log.warn("Cannot read {} from the cache: {}", key, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Lädt die Seite. Gleichzeitige Anfragen nach derselben Seite werden zu einem einzigen Aufruf des Loaders
+     * zusammengefasst.
+     *
+     * @param current the entry that is being replaced or <code>null</code>
+     */
+    private Entry load(String key, Loader loader, Entry current) throws IOException {
+        final CompletableFuture<Entry> future = new CompletableFuture<>();
+        final CompletableFuture<Entry> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            return await(running);
+        }
+
+        try {
+            final Entry entry = loadShared(key, loader, current);
+            future.complete(entry);
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Lädt die Seite, wenn keine andere Instanz das gerade tut. Sonst wird auf deren Ergebnis gewartet, höchstens bis
+     * zum Ablauf von <code>cacheLockTimeout</code>.
+     */
+    private Entry loadShared(String key, Loader loader, Entry current) throws IOException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(lockTimeout);
+        while (!tryLock(key)) {
+            final Entry loaded = loadedElsewhere(key, current);
+            if (loaded != null) {
+                return loaded;
+            }
+            if (System.nanoTime() - deadline > 0) {
+                log.warn("Gave up waiting for another instance to load {}", key);
+                return loadAndPut(key, loader);
+            }
+            try {
+                Thread.sleep(pollInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for another instance", e);
+            }
+        }
+
+        try {
+            // the other instance may have finished just before the lock was acquired
+            final Entry loaded = loadedElsewhere(key, current);
+            return loaded != null ? loaded : loadAndPut(key, loader);
+        } finally {
+            unlock(key);
+        }
+    }
+
+    private Entry loadedElsewhere(String key, Entry current) {
+        final Entry entry = stored(key);
+        return entry != null && (current == null || entry.created > current.created) ? entry : null;
+    }
+
+    private Entry loadAndPut(String key, Loader loader) throws IOException {
+        final Entry entry = new Entry(loader.load(), clock.millis());
+        put(key, entry);
+        return entry;
+    }
+
+    private boolean tryLock(String key) {
+        try {
+            return store.tryLock(key);
+        } catch (IOException e) {
+            log.warn("Cannot lock {}, loading it anyway: {}", key, e.toString());
+            return true;
+        }
+    }
+
+    private void unlock(String key) {
+        try {
+            store.unlock(key);
+        } catch (IOException e) {
+            log.warn("Cannot unlock {}: {}", key, e.toString());
+        }
+    }
+
+    private static Entry await(CompletableFuture<Entry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the upstream catalog", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void refreshInBackground(String key, Loader loader, Entry current) {
+        if (inFlight.containsKey(key)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    load(key, loader, current);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Background refresh of {} failed: {}", key, e.toString());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Background refresh of {} rejected", key);
+        }
+    }
+
+    private void put(String key, Entry entry) {
+        if (timeToLive + staleWhileRevalidate + staleIfError <= 0) {
+            return;
+        }
+        try {
+            store.put(key, entry);
+            if (store.size() > maxEntries) {
+                store.evictOldest();
+            }
+        } catch (IOException e) {
+            log.warn("Cannot store {} in the cache: {}", key, e.toString());
+        }
+    }
+
+    int size() throws IOException {
+        return store.size();
+    }
+
+    public CacheStore getStore() {
+        return store;
+    }
+
+    public void setStore(CacheStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Entfernt alle Seiten, die mit anderen Filterregeln erzeugt wurden. Seiten der aktuellen Regeln bleiben erhalten.
+     * Andere Seiten, die danach noch von laufenden Abrufen eingetragen werden, werden beim nächsten Zugriff verworfen.
+     *
+     * @param rules the {@link FilterRules#getFingerprint()} of the rules currently in use
+     */
+    public void invalidateOtherRules(String rules) {
+        if (rules.equals(this.rules)) {
+            return;
+        }
+        synchronized (this) {
+            if (rules.equals(this.rules)) {
+                return;
+            }
+            this.rules = rules;
+        }
+        try {
+            final int removed = store.removeOtherRules(rules);
+            log.info("Filter rules {}: {} cached pages invalidated", rules, removed);
+        } catch (IOException e) {
+            // other pages are still ignored by get
+            log.warn("Cannot remove pages of other filter rules from the cache: {}", e.toString());
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (StringUtils.isNotBlank(cacheDirectory)) {
+            try {
+                store = new SharedFileCacheStore(Paths.get(cacheDirectory), TimeUnit.SECONDS.toMillis(lockTimeout));
+            } catch (IOException e) {
+                throw new BeanInitializationException("Cannot create cache directory " + cacheDirectory, e);
+            }
+        }
+        if (refreshExecutor != null) {
+            return;
+        }
+        refreshExecutor = new ThreadPoolExecutor(1, 2, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(maxEntries), r -> {
+            final Thread thread = new Thread(r, "catalog-cache-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void destroy() {
+        if (refreshExecutor instanceof ExecutorService) {
+            ((ExecutorService) refreshExecutor).shutdownNow();
+        }
+    }
+
+    /**
+     * Erzeugt den Inhalt einer Seite, typischerweise durch Abruf und Filterung des Upstream-Katalogs.
+     */
+    public interface Loader {
+        Content load() throws IOException;
+    }
+
+    /**
+     * Der Inhalt einer Seite und zusätzliche HTTP Header, die mit ihr ausgeliefert werden.
+     */
+    public static class Content {
+        private final byte[] body;
+        private final Map<String, String> headers;
+        private final String rules;
+
+        public Content(byte[] body) {
+            this(body, Collections.emptyMap(), null);
+        }
+
+        public Content(byte[] body, Map<String, String> headers) {
+            this(body, headers, null);
+        }
+
+        /**
+         * @param rules {@link FilterRules#getFingerprint()} of the rules the page has been produced with, may be
+         *              <code>null</code>
+         */
+        public Content(byte[] body, Map<String, String> headers, String rules) {
+            this.body = body;
+            this.headers = headers;
+            this.rules = rules;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public String getRules() {
+            return rules;
+        }
+    }
+
+    /**
+     * Eine Seite im {@link CacheStore} mit dem Zeitpunkt, zu dem sie geladen wurde.
+     */
+    public static class Entry {
+        final Content content;
+        final long created;
+
+        public Entry(Content content, long created) {
+            this.content = content;
+            this.created = created;
+        }
+
+        public Content getContent() {
+            return content;
+        }
+
+        /**
+         * @return time in milliseconds at which the page has been loaded
+         */
+        public long getCreated() {
+            return created;
+        }
+    }
+
+    /**
+     * Eine Seite aus dem Cache, zusammen mit den Informationen für die HTTP Header <code>Age</code> und
+     * <code>Warning</code>.
+     */
+    public static class Result {
+        private final Content content;
+        private final long age;
+        private final String warning;
+
+        Result(Entry entry, long now, String warning) {
+            this.content = entry.content;
+            this.age = Math.max(0, TimeUnit.MILLISECONDS.toSeconds(now - entry.created));
+            this.warning = warning;
+        }
+
+        public byte[] getBody() {
+            return content.getBody();
+        }
+
+        /**
+         * @return additional headers of the page
+         */
+        public Map<String, String> getHeaders() {
+            return content.getHeaders();
+        }
+
+        /**
+         * @return age of the cached copy in seconds
+         */
+        public long getAge() {
+            return age;
+        }
+
+        /**
+         * @return the value of the <code>Warning</code> header or <code>null</code> if the response is fresh
+         */
+        public String getWarning() {
+            return warning;
+        }
+    }
+}
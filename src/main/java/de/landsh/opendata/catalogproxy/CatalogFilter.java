@@ -10,16 +10,24 @@ import org.apache.jena.vocabulary.DCAT;
 import org.apache.jena.vocabulary.DCTerms;
 import org.apache.jena.vocabulary.RDF;
 import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.util.StreamUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Filtert eine DCAT-AP.de konforme catalog.xml Datei nach festgelegten Kriterien.
  */
-public class CatalogFilter implements InitializingBean {
+public class CatalogFilter implements InitializingBean, DisposableBean {
 
     private static final Collection<Resource> UNWANTED_FORMATS = Arrays.asList(
             ResourceFactory.createResource("http://publications.europa.eu/resource/authority/file-type/PDF"),
@@ -30,72 +38,357 @@ public class CatalogFilter implements InitializingBean {
 
     private static final Resource ACCESS_RIGHTS_PUBLIC = ResourceFactory.createResource("http://publications.europa.eu/resource/authority/access-right/PUBLIC");
 
+    /**
+     * Pages with fewer datasets are filtered on the calling thread.
+     */
+    private static final int PARALLEL_THRESHOLD = 8;
+
     private static final Property LOCN_GEOMETRY = ResourceFactory.createProperty("http://www.w3.org/ns/locn#geometry");
-    final private Map<String, String> urlReplacements = new HashMap<>();
 
+    /**
+     * Initial rules, see {@link #getRules()} for the rules currently in use.
+     */
     @Value("#{${replaceURL:''}}")
     List<String> replaceURL;
 
     @Value("#{${unwantedPublishers:''}}")
     List<String> unwantedPublishers;
 
+    private volatile FilterRules rules = FilterRules.EMPTY;
+
     @Value("${baseURL:http://localhost:8080/}")
     private String baseURL;
 
+    /**
+     * Maximum number of datasets whose filter results are memoised.
+     */
+    @Value("${datasetCacheSize:10000}")
+    int datasetCacheSize = 10000;
+
+    private final Map<String, FilterResult> filterResults = Collections.synchronizedMap(
+            new LinkedHashMap<String, FilterResult>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, FilterResult> eldest) {
+                    return size() > datasetCacheSize;
+                }
+            });
+
+    private long memoisedRulesVersion;
+    private final LongAdder filterResultHits = new LongAdder();
+    private final LongAdder filterResultMisses = new LongAdder();
+
+    /**
+     * Number of threads used to filter the datasets of a single page.
+     */
+    @Value("${filterParallelism:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}")
+    int filterParallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Created with the first page that is filtered in parallel.
+     */
+    volatile ForkJoinPool forkJoinPool;
+
+    /**
+     * Maximum number of datasets with syntax errors that are skipped on a page. With 0 a single error fails the page.
+     */
+    @Value("${maxSkippedDatasets:10}")
+    int maxSkippedDatasets = 10;
+
+    private DatasetIndex datasetIndex;
+
+    private final FilterStatistics statistics = new FilterStatistics();
+
     public void setBaseURL(String baseURL) {
         this.baseURL = baseURL;
     }
 
+    public void setReplaceURL(List<String> replaceURL) {
+        this.replaceURL = replaceURL;
+        updateRules(null, null);
+    }
+
+    public void setUnwantedPublishers(List<String> unwantedPublishers) {
+        this.unwantedPublishers = unwantedPublishers;
+        updateRules(null, null);
+    }
+
+    public FilterRules getRules() {
+        return rules;
+    }
+
+    public long getRulesVersion() {
+        return rules.getVersion();
+    }
+
+    /**
+     * Tauscht die Regeln zur Laufzeit aus. Seiten, die gerade gefiltert werden, verwenden bis zum Ende die Regeln, mit
+     * denen sie begonnen wurden. Die Version wird nur erhöht, wenn sich die Regeln tatsächlich ändern.
+     *
+     * @param unwantedPublishers new list of unwanted publishers or <code>null</code> for the initial configuration
+     * @param replaceURL         new URL replacements or <code>null</code> for the initial configuration
+     * @return true if the rules have been changed
+     * @throws IllegalArgumentException if <code>replaceURL</code> has an odd number of elements
+     */
+    public synchronized boolean updateRules(List<String> unwantedPublishers, List<String> replaceURL) {
+        final FilterRules current = rules;
+        final FilterRules updated = new FilterRules(current.getVersion() + 1,
+                orEmpty(unwantedPublishers != null ? unwantedPublishers : this.unwantedPublishers),
+                orEmpty(replaceURL != null ? replaceURL : this.replaceURL));
+        if (updated.sameRules(current)) {
+            return false;
+        }
+        rules = updated;
+        return true;
+    }
+
+    private static List<String> orEmpty(List<String> list) {
+        return list == null ? Collections.emptyList() : list;
+    }
+
+    public FilterStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @param datasetIndex receives the filtered datasets of every page, may be <code>null</code>
+     */
+    public void setDatasetIndex(DatasetIndex datasetIndex) {
+        this.datasetIndex = datasetIndex;
+    }
+
+    /**
+     * Parses the page strictly while it is read from the stream. A single syntax error fails the page, see
+     * {@link #work(byte[], List)} for a page that has already been read.
+     */
     Model work(InputStream inputStream) {
-        final Model model = ModelFactory.createDefaultModel();
+        final Model model;
+        // the page is read and repaired while it is parsed
+        try (Tracer.Span span = Tracer.span("parse")) {
+            model = parseStrict(new FilterInvalidRDF(inputStream));
+            span.attribute("triples", model.size());
+        }
+        return filter(model, Collections.emptyList());
+    }
+
+    /**
+     * Parses the page strictly. Only if that fails, up to <code>maxSkippedDatasets</code> datasets with syntax errors
+     * are skipped, see {@link RecoveringParser}.
+     *
+     * @param skippedDatasets receives the URIs of datasets that have been skipped because of syntax errors, may be
+     *                        <code>null</code>
+     */
+    Model work(byte[] page, List<String> skippedDatasets) {
+        if (skippedDatasets == null) {
+            skippedDatasets = new ArrayList<>();
+        }
+        final Model model;
+        try (Tracer.Span span = Tracer.span("parse")) {
+            if (maxSkippedDatasets > 0) {
+                final byte[] document;
+                try {
+                    document = StreamUtils.copyToByteArray(new FilterInvalidRDF(new ByteArrayInputStream(page)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                model = RecoveringParser.parse(document, baseURL, maxSkippedDatasets, skippedDatasets);
+            } else {
+                model = parseStrict(new FilterInvalidRDF(new ByteArrayInputStream(page)));
+            }
+            span.attribute("triples", model.size()).attribute("skippedDatasets", skippedDatasets.size());
+        }
+        return filter(model, skippedDatasets);
+    }
 
+    private Model parseStrict(InputStream inputStream) {
+        final Model model = ModelFactory.createDefaultModel();
         RDFParser.create()
-                .source(new FilterInvalidRDF(inputStream))
+                .source(inputStream)
                 .lang(RDFLanguages.RDFXML)
                 .errorHandler(ErrorHandlerFactory.errorHandlerStrict)
                 .base(baseURL)
                 .parse(model);
+        return model;
+    }
 
+    /**
+     * @param skippedDatasets are removed from the statistics and the index
+     */
+    private Model filter(Model model, List<String> skippedDatasets) {
         final Set<String> usedDistributionIds = new HashSet<>();
+        final FilterRules rules = this.rules;
+        checkRules(rules);
 
-        final ResIterator it = model.listSubjectsWithProperty(RDF.type, DCAT.Dataset);
-        while (it.hasNext()) {
-            final Resource dataset = it.next();
-            if (includeThisDataset(dataset)) {
-                usedDistributionIds.addAll(getDistributionsForDataset(dataset));
-            } else {
-                model.remove(dataset.listProperties());
-                model.remove(model.listStatements(null, DCAT.dataset, dataset));
+        final List<DatasetPartition> partitions = new ArrayList<>();
+        try (Tracer.Span span = Tracer.span("filter.partition")) {
+            for (Resource dataset : model.listSubjectsWithProperty(RDF.type, DCAT.Dataset).toList()) {
+                partitions.add(DatasetPartition.of(dataset));
             }
+            span.attribute("datasets", partitions.size());
         }
 
-        removeUnusedDistributions(model, usedDistributionIds);
-        removeAnonymousResources(model);
-        removeUnusedLocations(model);
-        minimizeLocations(model);
-        rewriteHydraURLs(model);
-        rewriteDownloadAndAccessURLs(model);
-        addDownloadURLs(model);
-        addAccessRights(model);
-        addRights(model);
+        final List<FilterResult> results;
+        try (Tracer.Span span = Tracer.span("filter.datasets")) {
+            results = filterDatasets(partitions, rules);
+            span.attribute("rulesVersion", rules.getVersion());
+        }
+        try (Tracer.Span span = Tracer.span("filter.merge")) {
+            int included = 0;
+            for (int i = 0; i < partitions.size(); i++) {
+                final DatasetPartition partition = partitions.get(i);
+                final Resource dataset = partition.getDataset();
+                final FilterResult result = results.get(i);
+                if (dataset.isURIResource()) {
+                    statistics.record(dataset.getURI(), result.outcome);
+                }
+                if (result.isIncluded()) {
+                    included++;
+                    final Collection<String> distributions = getDistributionsForDataset(dataset);
+                    usedDistributionIds.addAll(distributions);
+                    if (datasetIndex != null && dataset.isURIResource()) {
+                        final Statement identifier = dataset.getProperty(DCTerms.identifier);
+                        datasetIndex.put(dataset.getURI(),
+                                identifier != null && identifier.getObject().isLiteral() ? identifier.getString() : null,
+                                distributions, result.snapshot);
+                    }
+                    model.remove(partition.getStatements());
+                    RdfSnapshot.decode(result.snapshot, model.getGraph());
+                } else {
+                    if (datasetIndex != null && dataset.isURIResource()) {
+                        datasetIndex.remove(dataset.getURI());
+                    }
+                    model.remove(dataset.listProperties());
+                    model.remove(model.listStatements(null, DCAT.dataset, dataset));
+                }
+            }
+            for (String skipped : skippedDatasets) {
+                statistics.remove(skipped);
+                if (datasetIndex != null) {
+                    datasetIndex.remove(skipped);
+                }
+            }
+            span.attribute("included", included);
+        }
+
+        Tracer.span("filter.removeUnusedDistributions", () -> removeUnusedDistributions(model, usedDistributionIds));
+        Tracer.span("filter.removeAnonymousResources", () -> removeAnonymousResources(model));
+        Tracer.span("filter.removeUnusedLocations", () -> removeUnusedLocations(model));
+        Tracer.span("filter.minimizeLocations", () -> minimizeLocations(model));
+        Tracer.span("filter.rewriteHydraURLs", () -> rewriteHydraURLs(model));
 
         return model;
     }
 
     /**
-     * Determine if the specified dataset follows the rules of GovData and should be included in the output.
-     *
-     * @param dataset RDF data of the dataset
-     * @return true if the dataset should be included
+     * Filtert die Datensätze einer Seite. Jeder Datensatz wird auf einer eigenen Kopie seines Teilgraphen bearbeitet,
+     * so dass große Seiten parallel auf mehreren Prozessorkernen gefiltert werden können. Die Ergebnisse haben dieselbe
+     * Reihenfolge wie die Datensätze.
+     */
+    List<FilterResult> filterDatasets(List<DatasetPartition> partitions, FilterRules rules) {
+        final List<FilterResult> results = new ArrayList<>(partitions.size());
+        if (filterParallelism <= 1 || partitions.size() < PARALLEL_THRESHOLD) {
+            for (DatasetPartition partition : partitions) {
+                results.add(filterDataset(partition, rules));
+            }
+            return results;
+        }
+
+        final ForkJoinPool pool = forkJoinPool();
+        final List<ForkJoinTask<FilterResult>> tasks = new ArrayList<>(partitions.size());
+        for (DatasetPartition partition : partitions) {
+            tasks.add(pool.submit(() -> filterDataset(partition, rules)));
+        }
+        for (ForkJoinTask<FilterResult> task : tasks) {
+            results.add(task.join());
+        }
+        return results;
+    }
+
+    private ForkJoinPool forkJoinPool() {
+        ForkJoinPool pool = forkJoinPool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = forkJoinPool;
+                if (pool == null) {
+                    pool = new ForkJoinPool(filterParallelism);
+                    forkJoinPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Entscheidet, ob der Datensatz in die Ausgabe übernommen wird, und wendet die Anreicherungen auf seinen
+     * Teilgraphen an. Die meisten Datensätze ändern sich zwischen zwei Abrufen nicht, deshalb wird das Ergebnis unter
+     * dem Hashwert des Teilgraphen zwischengespeichert.
      */
-    private boolean includeThisDataset(Resource dataset) {
-        return isDatasetOfPublicAdministration(dataset) && (hasAtLeastOneValidDistribution(dataset) || isCollection(dataset));
+    FilterResult filterDataset(DatasetPartition partition, FilterRules rules) {
+        final String digest = partition.digest();
+        FilterResult result = filterResults.get(digest);
+        // a page that started before the rules were changed may still add results of the previous version
+        if (result == null || result.rulesVersion != rules.getVersion()) {
+            filterResultMisses.increment();
+            result = transform(partition, rules);
+            filterResults.put(digest, result);
+        } else {
+            filterResultHits.increment();
+        }
+        return result;
+    }
+
+    private FilterResult transform(DatasetPartition partition, FilterRules rules) {
+        final Model model = ModelFactory.createDefaultModel();
+        model.add(partition.getStatements());
+
+        final Resource dataset = partition.getDataset().inModel(model);
+        final Resource publisher = dataset.getPropertyResourceValue(DCTerms.publisher);
+        final FilterStatistics.Outcome outcome = new FilterStatistics.Outcome(publisher == null ? null : publisher.getURI());
+        if (!isDatasetOfPublicAdministration(dataset, rules)) {
+            return new FilterResult(null, rules.getVersion(), outcome.add(FilterStatistics.Counter.UNWANTED_PUBLISHER, 1));
+        }
+        if (!hasAtLeastOneValidDistribution(dataset) && !isCollection(dataset)) {
+            return new FilterResult(null, rules.getVersion(), outcome.add(FilterStatistics.Counter.NO_VALID_DISTRIBUTION, 1));
+        }
+
+        rewriteDownloadAndAccessURLs(model, rules);
+        outcome.add(FilterStatistics.Counter.DOWNLOAD_URL_ADDED, addDownloadURLs(model));
+        addAccessRights(model);
+        outcome.add(FilterStatistics.Counter.RIGHTS_ADDED, addRights(model));
+
+        return new FilterResult(RdfSnapshot.encode(model.getGraph()), rules.getVersion(),
+                outcome.add(FilterStatistics.Counter.INCLUDED, 1));
+    }
+
+    /**
+     * Discards the memoised filter results if the rules have been changed.
+     */
+    private synchronized void checkRules(FilterRules rules) {
+        if (rules.getVersion() > memoisedRulesVersion) {
+            filterResults.clear();
+            memoisedRulesVersion = rules.getVersion();
+        }
+    }
+
+    int filterResultCacheSize() {
+        return filterResults.size();
+    }
+
+    long filterResultHits() {
+        return filterResultHits.sum();
+    }
+
+    long filterResultMisses() {
+        return filterResultMisses.sum();
     }
 
     boolean isDatasetOfPublicAdministration(Resource dataset) {
+        return isDatasetOfPublicAdministration(dataset, rules);
+    }
+
+    private static boolean isDatasetOfPublicAdministration(Resource dataset, FilterRules rules) {
         final Resource publisher = dataset.getPropertyResourceValue(DCTerms.publisher);
         final String uri = publisher == null ? null : publisher.getURI();
-        return unwantedPublishers == null || !unwantedPublishers.contains(uri);
+        return !rules.getUnwantedPublishers().contains(uri);
     }
 
     /**
@@ -119,8 +412,11 @@ public class CatalogFilter implements InitializingBean {
      * Add downloadURL properties to Distributions. The German DCAT-AP.de treats downloadURL as a not so
      * important optional properties and relies on the accessURL. However, the European data portal values the
      * downloadURL property highly.
+     *
+     * @return number of distributions that received a downloadURL
      */
-    void addDownloadURLs(Model model) {
+    int addDownloadURLs(Model model) {
+        int count = 0;
         final ResIterator it = model.listSubjectsWithProperty(RDF.type, DCAT.Distribution);
         while (it.hasNext()) {
             final Resource distribution = it.next();
@@ -130,29 +426,35 @@ public class CatalogFilter implements InitializingBean {
 
             if (downloadURL == null) {
                 distribution.addProperty(DCAT.downloadURL, accessURL);
+                count++;
             }
         }
+        return count;
     }
 
-    private Resource replaceURIifNecessary(Resource res) {
+    private static Resource replaceURIifNecessary(Resource res, FilterRules rules) {
         if (res == null) return null;
         final String uri = res.getURI();
 
-        for (String s : urlReplacements.keySet()) {
-            if (uri.startsWith(s)) {
-                return ResourceFactory.createResource(uri.replaceFirst(s, urlReplacements.get(s)));
+        for (Map.Entry<String, String> replacement : rules.getUrlReplacements().entrySet()) {
+            if (uri.startsWith(replacement.getKey())) {
+                return ResourceFactory.createResource(uri.replaceFirst(replacement.getKey(), replacement.getValue()));
             }
         }
         return res;
     }
 
     void rewriteDownloadAndAccessURLs(Model model) {
+        rewriteDownloadAndAccessURLs(model, rules);
+    }
+
+    private static void rewriteDownloadAndAccessURLs(Model model, FilterRules rules) {
         final ResIterator it = model.listSubjectsWithProperty(RDF.type, DCAT.Distribution);
         while (it.hasNext()) {
             final Resource distribution = it.next();
 
-            final Resource accessURL = replaceURIifNecessary(distribution.getPropertyResourceValue(DCAT.accessURL));
-            final Resource downloadURL = replaceURIifNecessary(distribution.getPropertyResourceValue(DCAT.downloadURL));
+            final Resource accessURL = replaceURIifNecessary(distribution.getPropertyResourceValue(DCAT.accessURL), rules);
+            final Resource downloadURL = replaceURIifNecessary(distribution.getPropertyResourceValue(DCAT.downloadURL), rules);
 
             if (accessURL != null) {
                 distribution.removeAll(DCAT.accessURL);
@@ -302,15 +604,21 @@ public class CatalogFilter implements InitializingBean {
 
     @Override
     public void afterPropertiesSet() throws Exception {
-
-        // Interpret the (optionally) specified replacement of download URLs.
-        if (replaceURL.size() % 2 != 0) {
-            throw new BeanInitializationException("replaceURL must be an array of even size, e.g. replaceURL= {'http://10.61.35.179/','https://opendata.schleswig-holstein.de/'}");
+        try {
+            updateRules(null, null);
+        } catch (IllegalArgumentException e) {
+            throw new BeanInitializationException(e.getMessage());
         }
-        for (int i = 0; i < replaceURL.size(); i += 2) {
-            final String source = replaceURL.get(i);
-            final String target = replaceURL.get(i + 1);
-            urlReplacements.put(source, target);
+    }
+
+    /**
+     * Stops the threads that filter datasets in parallel.
+     */
+    @Override
+    public synchronized void destroy() {
+        if (forkJoinPool != null) {
+            forkJoinPool.shutdownNow();
+            forkJoinPool = null;
         }
     }
 
@@ -318,8 +626,11 @@ public class CatalogFilter implements InitializingBean {
      * Add a dct:rights statement to Distributions. The German DCAT-AP.de treats dct:rights as a not so
      * important optional property and relies on dct:license. However, the European data portal values the
      * dct:rights property highly.
+     *
+     * @return number of distributions that received a dct:rights statement
      */
-    void addRights(Model model) {
+    int addRights(Model model) {
+        int count = 0;
         final ResIterator it = model.listSubjectsWithProperty(RDF.type, DCAT.Distribution);
         while (it.hasNext()) {
             final Resource distribution = it.next();
@@ -329,8 +640,29 @@ public class CatalogFilter implements InitializingBean {
 
             if (rights == null && license != null) {
                 distribution.addProperty(DCTerms.rights, license);
+                count++;
             }
         }
+        return count;
     }
 
+    /**
+     * Das Ergebnis der Filterung eines Datensatzes: die Entscheidung, ob er übernommen wird, und ggf. die
+     * angereicherten Tripel seines Teilgraphen als {@link RdfSnapshot}.
+     */
+    static class FilterResult {
+        final byte[] snapshot;
+        final long rulesVersion;
+        final FilterStatistics.Outcome outcome;
+
+        FilterResult(byte[] snapshot, long rulesVersion, FilterStatistics.Outcome outcome) {
+            this.snapshot = snapshot;
+            this.rulesVersion = rulesVersion;
+            this.outcome = outcome;
+        }
+
+        boolean isIncluded() {
+            return snapshot != null;
+        }
+    }
 }
@@ -0,0 +1,138 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.env.Environment;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Verwaltet die Kataloge, die der Proxy ausliefert. Der Standardkatalog wird mit den globalen Properties
+ * (<code>remoteURL</code>, <code>replaceURL</code>, ...) konfiguriert und unter <code>/catalog.xml</code> ausgeliefert.
+ * Weitere Kataloge werden in der Property <code>catalogs</code> aufgezählt und mit Properties der Form
+ * <code>catalog.&lt;name&gt;.remoteURL</code> konfiguriert. Sie werden unter <code>/&lt;name&gt;/catalog.xml</code>
+ * ausgeliefert.
+ */
+public class CatalogRegistry implements InitializingBean, DisposableBean {
+
+    private final UpstreamCatalog defaultCatalog;
+    private final Environment environment;
+    private final Map<String, UpstreamCatalog> catalogs = new LinkedHashMap<>();
+
+    public CatalogRegistry(UpstreamCatalog defaultCatalog, Environment environment) {
+        this.defaultCatalog = defaultCatalog;
+        this.environment = environment;
+    }
+
+    public UpstreamCatalog getDefaultCatalog() {
+        return defaultCatalog;
+    }
+
+    /**
+     * @return the catalog with the specified name, the default catalog if the name is <code>null</code>, or
+     * <code>null</code> if there is no such catalog
+     */
+    public UpstreamCatalog get(String name) {
+        return name == null ? defaultCatalog : catalogs.get(name);
+    }
+
+    public Collection<UpstreamCatalog> getAll() {
+        final List<UpstreamCatalog> result = new ArrayList<>();
+        result.add(defaultCatalog);
+        result.addAll(catalogs.values());
+        return result;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (environment == null) {
+            return;
+        }
+        for (String name : StringUtils.split(environment.getProperty("catalogs", ""), ", ")) {
+            catalogs.put(name, createCatalog(name));
+        }
+    }
+
+    UpstreamCatalog createCatalog(String name) throws Exception {
+        final String prefix = "catalog." + name + ".";
+
+        final CatalogFilter filter = new CatalogFilter();
+        filter.setBaseURL(environment.getProperty(prefix + "baseURL",
+                environment.getProperty("baseURL", "http://localhost:8080/") + name + "/"));
+        filter.setReplaceURL(parseList(environment.getProperty(prefix + "replaceURL")));
+        filter.setUnwantedPublishers(parseList(environment.getProperty(prefix + "unwantedPublishers")));
+        filter.maxSkippedDatasets = (int) longProperty(prefix, "maxSkippedDatasets", 10);
+        filter.filterParallelism = (int) longProperty(prefix, "filterParallelism", Runtime.getRuntime().availableProcessors());
+        filter.datasetCacheSize = (int) longProperty(prefix, "datasetCacheSize", 10000);
+        filter.afterPropertiesSet();
+
+        final CatalogCache cache = new CatalogCache();
+        cache.timeToLive = longProperty(prefix, "cacheTTL", 300);
+        cache.staleWhileRevalidate = longProperty(prefix, "staleWhileRevalidate", 3600);
+        cache.staleIfError = longProperty(prefix, "staleIfError", 86400);
+        cache.maxEntries = (int) longProperty(prefix, "cacheMaxEntries", 1000);
+        // every catalog needs its own directory, by default a subdirectory of the global one
+        final String cacheDirectory = environment.getProperty("cacheDirectory", "");
+        cache.cacheDirectory = environment.getProperty(prefix + "cacheDirectory",
+                StringUtils.isBlank(cacheDirectory) ? "" : Paths.get(cacheDirectory, name).toString());
+        cache.lockTimeout = longProperty(prefix, "cacheLockTimeout", 120);
+        cache.afterPropertiesSet();
+
+        final UpstreamCatalog catalog = new UpstreamCatalog(name, filter, cache);
+        final String remoteURL = environment.getProperty(prefix + "remoteURL");
+        if (StringUtils.isBlank(remoteURL)) {
+            throw new IllegalArgumentException("Property " + prefix + "remoteURL is missing");
+        }
+        catalog.remoteURL = remoteURL;
+        catalog.connectTimeout = (int) longProperty(prefix, "upstreamConnectTimeout", 10000);
+        catalog.readTimeout = (int) longProperty(prefix, "upstreamReadTimeout", 60000);
+        catalog.maxConnections = (int) longProperty(prefix, "maxConnections", 4);
+        catalog.connectionWaitTimeout = longProperty(prefix, "connectionWaitTimeout", 30000);
+        catalog.recordTraffic = environment.getProperty(prefix + "recordTraffic", environment.getProperty("recordTraffic"));
+        catalog.replayTraffic = environment.getProperty(prefix + "replayTraffic", environment.getProperty("replayTraffic"));
+        catalog.hedgeRequests = environment.getProperty(prefix + "hedgeRequests", Boolean.class,
+                environment.getProperty("hedgeRequests", Boolean.class, false));
+        catalog.hedgeMinDelay = longProperty(prefix, "hedgeMinDelay", 1000);
+        catalog.setHedgeBudget(defaultCatalog.getHedgeBudget());
+        catalog.setMemoryBudget(defaultCatalog.getMemoryBudget());
+        catalog.circuitFailureThreshold = (int) longProperty(prefix, "circuitFailureThreshold", 5);
+        catalog.circuitSlowCallMillis = longProperty(prefix, "circuitSlowCallMillis", 30000);
+        catalog.circuitOpenMillis = longProperty(prefix, "circuitOpenMillis", 30000);
+        catalog.afterPropertiesSet();
+        return catalog;
+    }
+
+    /**
+     * Reads a catalog specific property and falls back to the global property of the same name.
+     */
+    private long longProperty(String prefix, String key, long defaultValue) {
+        return environment.getProperty(prefix + key, Long.class, environment.getProperty(key, Long.class, defaultValue));
+    }
+
+    /**
+     * Interpretiert eine Liste in derselben Syntax wie die globalen Properties, z.B. <code>{'a','b'}</code>.
+     */
+    @SuppressWarnings("unchecked")
+    static List<String> parseList(String value) {
+        if (StringUtils.isBlank(value)) {
+            return Collections.emptyList();
+        }
+        final Object result = new SpelExpressionParser().parseExpression(value).getValue();
+        if (result instanceof List) {
+            return (List<String>) result;
+        }
+        return Collections.singletonList(String.valueOf(result));
+    }
+
+    @Override
+    public void destroy() {
+        for (UpstreamCatalog catalog : catalogs.values()) {
+            catalog.getCatalogCache().destroy();
+            catalog.getCatalogFilter().destroy();
+            catalog.destroy();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Schützt den Proxy vor einem nicht erreichbaren Upstream-Katalog. Nach <code>failureThreshold</code> aufeinander
+ * folgenden Fehlern wird der Schalter geöffnet; Antworten, die länger als <code>slowCallMillis</code> dauern, zählen
+ * dabei als Fehler. Solange er offen ist, schlagen Anfragen sofort fehl, so dass der Cache eine ältere Kopie ausliefern
+ * kann, statt auf einen Timeout zu warten. Nach <code>openMillis</code> wird eine einzelne Probeanfrage durchgelassen
+ * (halb offen). Ist sie erfolgreich, wird der Schalter wieder geschlossen.
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long slowCallMillis;
+    private final long openMillis;
+    Clock clock = Clock.systemUTC();
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    private final Map<State, Long> transitions = new EnumMap<>(State.class);
+    private long successes;
+    private long failures;
+    private long rejected;
+
+    public CircuitBreaker(String name, int failureThreshold, long slowCallMillis, long openMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.slowCallMillis = slowCallMillis;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Must be called before every upstream request. Every permitted request must be followed by a call of
+     * {@link #onSuccess(long)}, {@link #onFailure()} or {@link #onCancel()}.
+     *
+     * @throws CircuitOpenException if the upstream catalog is considered unavailable
+     */
+    public synchronized void acquire() throws CircuitOpenException {
+        if (state == State.OPEN && clock.millis() - openedAt >= openMillis) {
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.OPEN || (state == State.HALF_OPEN && trialInFlight)) {
+            rejected++;
+            throw new CircuitOpenException(name, retryAfterMillis());
+        }
+        if (state == State.HALF_OPEN) {
+            trialInFlight = true;
+        }
+    }
+
+    public synchronized void onSuccess(long elapsedMillis) {
+        if (elapsedMillis > slowCallMillis) {
+            log.debug("Slow response from upstream catalog {}: {} ms", name, elapsedMillis);
+            onFailure();
+            return;
+        }
+        successes++;
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+            trialInFlight = false;
+            transition(State.CLOSED);
+        }
+    }
+
+    /**
+     * The permitted request has not been sent, e.g. because no upstream connection became free. Neither a success nor
+     * a failure is counted, but another request may be sent as trial.
+     */
+    public synchronized void onCancel() {
+        trialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        failures++;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            trialInFlight = false;
+            openedAt = clock.millis();
+            transition(State.OPEN);
+        }
+    }
+
+    private void transition(State newState) {
+        if (newState == State.OPEN) {
+            log.warn("Upstream catalog {} is not available, circuit opened for {} ms", name, openMillis);
+        } else {
+            log.info("Circuit of upstream catalog {} is {}", name, newState);
+        }
+        state = newState;
+        transitions.merge(newState, 1L, Long::sum);
+    }
+
+    private long retryAfterMillis() {
+        return Math.max(0, openedAt + openMillis - clock.millis());
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the current state and the counters of this circuit breaker
+     */
+    public synchronized Map<String, Object> getMetrics() {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("state", state.name());
+        result.put("consecutiveFailures", consecutiveFailures);
+        result.put("successes", successes);
+        result.put("failures", failures);
+        result.put("rejected", rejected);
+        final Map<String, Long> transitionCounts = new LinkedHashMap<>();
+        for (State s : State.values()) {
+            transitionCounts.put(s.name(), transitions.getOrDefault(s, 0L));
+        }
+        result.put("transitions", transitionCounts);
+        return result;
+    }
+
+    /**
+     * Signalisiert, dass eine Anfrage wegen eines offenen Schalters nicht an den Upstream-Katalog gesendet wurde.
+     */
+    public static class CircuitOpenException extends IOException {
+        private final long retryAfterMillis;
+
+        CircuitOpenException(String name, long retryAfterMillis) {
+            super("Upstream catalog " + name + " is not available");
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        public long getRetryAfterMillis() {
+            return retryAfterMillis;
+        }
+    }
+}
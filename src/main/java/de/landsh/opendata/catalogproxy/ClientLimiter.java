@@ -0,0 +1,236 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Begrenzt die Anfragen je Client. Ein Client ist ein Harvester, der sich mit einem in <code>apiKeys</code>
+ * konfigurierten API-Schlüssel ausweist, oder sonst eine IP-Adresse. Jeder Client hat einen Token Bucket, der sich mit
+ * <code>clientRate</code> mal seinem Gewicht (<code>clientWeights</code>, Standard 1) Anfragen pro Sekunde füllt und
+ * höchstens <code>clientBurst</code> Anfragen fasst. Das Gewicht bestimmt außerdem den Anteil an den Verbindungen zum
+ * Upstream-Katalog, wenn mehrere Clients auf eine Verbindung warten (siehe {@link FairScheduler}).
+ * <p>
+ * Der Token Bucket ist als Generic Cell Rate Algorithm umgesetzt: sein Zustand ist ein einziger Zeitpunkt, der mit
+ * compare-and-set fortgeschrieben wird, so dass keine Sperre nötig ist.
+ */
+public class ClientLimiter implements InitializingBean {
+
+    /**
+     * Client of requests that are not made for a client, e.g. background refreshes.
+     */
+    static final Client BACKGROUND = new Client("background", 1, 0);
+
+    /**
+     * ID of the bucket that new IP addresses share while <code>maxClients</code> clients are busy.
+     */
+    static final String OVERFLOW = "overflow";
+
+    private static final ThreadLocal<Client> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Requests per second a client of weight 1 may make on average. 0 disables the limit.
+     */
+    @Value("${clientRate:0}")
+    double rate;
+
+    /**
+     * Number of requests a client may make at once after a pause.
+     */
+    @Value("${clientBurst:20}")
+    int burst = 20;
+
+    @Value("${apiKeyHeader:X-API-Key}")
+    String apiKeyHeader = "X-API-Key";
+
+    /**
+     * API keys and the names of their clients, e.g. <code>{'secret':'govdata'}</code>.
+     */
+    @Value("${apiKeys:}")
+    String apiKeys;
+
+    /**
+     * Weights of the clients by name or IP address, e.g. <code>{'govdata':4}</code>.
+     */
+    @Value("${clientWeights:}")
+    String clientWeights;
+
+    /**
+     * Number of clients above which idle clients are forgotten. If none of them is idle, new IP addresses share one
+     * bucket until a client becomes idle.
+     */
+    @Value("${maxClients:10000}")
+    int maxClients = 10000;
+
+    LongSupplier nanoTime = System::nanoTime;
+
+    private final Map<String, Client> clients = new ConcurrentHashMap<>();
+    private Map<String, String> names = Collections.emptyMap();
+    private Map<String, Integer> weights = Collections.emptyMap();
+
+    public String getApiKeyHeader() {
+        return apiKeyHeader;
+    }
+
+    /**
+     * @param apiKey        value of the API key header, may be <code>null</code>
+     * @param remoteAddress IP address of the client
+     */
+    public Client identify(String apiKey, String remoteAddress) {
+        final String name = apiKey == null ? null : names.get(apiKey);
+        // unknown keys are ignored, otherwise a client could evade its limit with random keys
+        final String id = name != null ? name : remoteAddress;
+        Client client = clients.get(id);
+        if (client == null) {
+            if (clients.size() >= maxClients) {
+                evictIdleClients();
+                // harvesters with an API key are few, but random addresses must not grow the map without limit
+                if (name == null && clients.size() >= maxClients) {
+                    return clients.computeIfAbsent(OVERFLOW, k -> new Client(k, 1, nanoTime.getAsLong()));
+                }
+            }
+            client = clients.computeIfAbsent(id, k -> new Client(k, weights.getOrDefault(k, 1), nanoTime.getAsLong()));
+        }
+        return client;
+    }
+
+    private void evictIdleClients() {
+        final long now = nanoTime.getAsLong();
+        clients.values().removeIf(client -> client.active.get() == 0 && client.theoreticalArrival.get() - now <= 0);
+    }
+
+    /**
+     * Takes a token from the bucket of the client.
+     *
+     * @return 0 if the request is admitted, otherwise the time in milliseconds after which the client may retry
+     */
+    public long tryAcquire(Client client) {
+        if (rate <= 0) {
+            client.admitted.increment();
+            return 0;
+        }
+        final long interval = (long) (TimeUnit.SECONDS.toNanos(1) / (rate * client.weight));
+        final long tolerance = interval * (Math.max(1, burst) - 1);
+        while (true) {
+            final long now = nanoTime.getAsLong();
+            final long previous = client.theoreticalArrival.get();
+            final long arrival = previous - now > 0 ? previous : now;
+            if (arrival - now > tolerance) {
+                client.throttled.increment();
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(arrival - now - tolerance));
+            }
+            if (client.theoreticalArrival.compareAndSet(previous, arrival + interval)) {
+                client.admitted.increment();
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * @return the client of the request handled by the current thread
+     */
+    public static Client current() {
+        final Client client = CURRENT.get();
+        return client == null ? BACKGROUND : client;
+    }
+
+    static void setCurrent(Client client) {
+        if (client == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(client);
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        final Map<String, Object> byClient = new TreeMap<>();
+        for (Client client : clients.values()) {
+            final Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("weight", client.weight);
+            metrics.put("admitted", client.admitted.sum());
+            metrics.put("throttled", client.throttled.sum());
+            metrics.put("active", client.active.get());
+            metrics.put("waiting", client.waiting.get());
+            byClient.put(client.id, metrics);
+        }
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("rate", rate);
+        result.put("burst", burst);
+        result.put("clients", byClient);
+        return result;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        names = parseMap(apiKeys, String::valueOf);
+        weights = parseMap(clientWeights, value -> Integer.valueOf(String.valueOf(value)));
+        for (Map.Entry<String, Integer> weight : weights.entrySet()) {
+            if (weight.getValue() < 1) {
+                throw new IllegalArgumentException("Weight of client " + weight.getKey() + " must be at least 1");
+            }
+        }
+    }
+
+    private static <T> Map<String, T> parseMap(String value, Function<Object, T> converter) {
+        if (StringUtils.isBlank(value)) {
+            return Collections.emptyMap();
+        }
+        final Object map = new SpelExpressionParser().parseExpression(value).getValue();
+        if (!(map instanceof Map)) {
+            throw new IllegalArgumentException("Expected a map like {'key':'value'}, but got " + value);
+        }
+        final Map<String, T> result = new HashMap<>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) map).entrySet()) {
+            result.put(String.valueOf(entry.getKey()), converter.apply(entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * Ein Harvester oder eine IP-Adresse mit Token Bucket und Zählern.
+     */
+    public static class Client {
+        private final String id;
+        private final int weight;
+        /**
+         * Time at which the bucket is full again, in {@link System#nanoTime()}.
+         */
+        private final AtomicLong theoreticalArrival;
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder throttled = new LongAdder();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger waiting = new AtomicInteger();
+
+        Client(String id, int weight, long now) {
+            this.id = id;
+            this.weight = weight;
+            this.theoreticalArrival = new AtomicLong(now);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        AtomicInteger getActive() {
+            return active;
+        }
+
+        AtomicInteger getWaiting() {
+            return waiting;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.vocabulary.DCAT;
+import org.apache.jena.vocabulary.DCTerms;
+
+import java.time.Clock;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index der gefilterten Datensätze eines Katalogs. Jeder Datensatz wird mit seinem gefilterten Teilgraphen (siehe
+ * {@link DatasetPartition}) als {@link RdfSnapshot} unter seiner URI abgelegt und ist außerdem über seinen
+ * <code>dct:identifier</code> und die URIs seiner Distributionen auffindbar. Der Index wird bei jedem Abruf einer Seite
+ * aktualisiert: übernommene Datensätze werden eingetragen, herausgefilterte und fehlerhafte entfernt.
+ */
+public class DatasetIndex {
+
+    private final Map<String, Entry> datasets = new ConcurrentHashMap<>();
+    private final Map<String, String> identifiers = new ConcurrentHashMap<>();
+    private final Map<String, String> distributions = new ConcurrentHashMap<>();
+
+    Clock clock = Clock.systemUTC();
+
+    /**
+     * Adds or replaces a dataset.
+     *
+     * @param snapshot the filtered subgraph of the dataset
+     */
+    public synchronized void put(String uri, String identifier, Collection<String> distributionURIs, byte[] snapshot) {
+        removeKeys(uri);
+        final Entry entry = new Entry(identifier, distributionURIs, snapshot, clock.millis());
+        datasets.put(uri, entry);
+        if (identifier != null) {
+            identifiers.put(identifier, uri);
+        }
+        for (String distribution : entry.distributions) {
+            distributions.put(distribution, uri);
+        }
+    }
+
+    /**
+     * Removes a dataset that is no longer part of the filtered catalog.
+     */
+    public synchronized void remove(String uri) {
+        removeKeys(uri);
+        datasets.remove(uri);
+    }
+
+    private void removeKeys(String uri) {
+        final Entry old = datasets.get(uri);
+        if (old == null) {
+            return;
+        }
+        if (old.identifier != null) {
+            identifiers.remove(old.identifier, uri);
+        }
+        for (String distribution : old.distributions) {
+            distributions.remove(distribution, uri);
+        }
+    }
+
+    /**
+     * @param uri URI of a dataset or of one of its distributions
+     * @return the dataset or <code>null</code> if it has not been indexed
+     */
+    public Entry findByURI(String uri) {
+        final Entry entry = datasets.get(uri);
+        if (entry != null) {
+            return entry;
+        }
+        final String dataset = distributions.get(uri);
+        return dataset == null ? null : datasets.get(dataset);
+    }
+
+    public Entry findByIdentifier(String identifier) {
+        final String dataset = identifiers.get(identifier);
+        return dataset == null ? null : datasets.get(dataset);
+    }
+
+    public int size() {
+        return datasets.size();
+    }
+
+    /**
+     * Ein indizierter Datensatz.
+     */
+    public static class Entry {
+        private final String identifier;
+        private final String[] distributions;
+        private final byte[] snapshot;
+        private final long indexed;
+
+        Entry(String identifier, Collection<String> distributions, byte[] snapshot, long indexed) {
+            this.identifier = identifier;
+            // distributions without URI cannot be looked up
+            this.distributions = distributions.stream().filter(Objects::nonNull).toArray(String[]::new);
+            this.snapshot = snapshot;
+            this.indexed = indexed;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        /**
+         * @return time in milliseconds at which the dataset has been indexed
+         */
+        public long getIndexed() {
+            return indexed;
+        }
+
+        /**
+         * @return a new model that contains the filtered subgraph of the dataset
+         */
+        public Model toModel() {
+            final Model model = ModelFactory.createDefaultModel();
+            model.setNsPrefix("dcat", DCAT.NS);
+            model.setNsPrefix("dct", DCTerms.NS);
+            RdfSnapshot.decode(snapshot, model.getGraph());
+            return model;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdf.model.*;
+import org.apache.jena.vocabulary.DCAT;
+
+import java.util.*;
+
+/**
+ * Der Teilgraph eines dcat:Dataset: die Aussagen über den Datensatz selbst, über seine Distributionen und über alle
+ * Blank Nodes, die von diesen aus erreichbar sind (z.B. dct:PeriodOfTime oder dct:Location ohne URI).
+ */
+public class DatasetPartition {
+
+    private static final long SEED1 = 0xcbf29ce484222325L;
+    private static final long SEED2 = 0x9e3779b97f4a7c15L;
+
+    private final Resource dataset;
+    private final List<Statement> statements;
+
+    private DatasetPartition(Resource dataset, List<Statement> statements) {
+        this.dataset = dataset;
+        this.statements = statements;
+    }
+
+    /**
+     * Extracts the subgraph of the specified dataset from its model.
+     */
+    public static DatasetPartition of(Resource dataset) {
+        final List<Statement> statements = new ArrayList<>();
+        final Set<Resource> visited = new HashSet<>();
+
+        collect(dataset, statements, visited);
+
+        final StmtIterator it = dataset.listProperties(DCAT.distribution);
+        while (it.hasNext()) {
+            final RDFNode distribution = it.next().getObject();
+            if (distribution.isResource()) {
+                collect(distribution.asResource(), statements, visited);
+            }
+        }
+
+        return new DatasetPartition(dataset, statements);
+    }
+
+    private static void collect(Resource subject, List<Statement> statements, Set<Resource> visited) {
+        if (!visited.add(subject)) {
+            return;
+        }
+        final StmtIterator it = subject.listProperties();
+        while (it.hasNext()) {
+            final Statement statement = it.next();
+            statements.add(statement);
+            if (statement.getObject().isAnon()) {
+                collect(statement.getObject().asResource(), statements, visited);
+            }
+        }
+    }
+
+    public Resource getDataset() {
+        return dataset;
+    }
+
+    public List<Statement> getStatements() {
+        return statements;
+    }
+
+    /**
+     * Liefert einen Hashwert über den Inhalt des Teilgraphen. Der Wert ist unabhängig von der Reihenfolge der Aussagen
+     * und von den Bezeichnern der Blank Nodes, so dass ein unveränderter Datensatz bei jedem Abruf denselben Wert
+     * erhält.
+     */
+    public String digest() {
+        return digest(statements);
+    }
+
+    /**
+     * Hashwert über beliebige Aussagen, z.B. über eine vollständige gefilterte Seite.
+     */
+    static String digest(Collection<Statement> statements) {
+        final Map<Node, long[]> blankNodeHashes = new HashMap<>();
+        final Map<Node, List<Statement>> blankNodeStatements = new HashMap<>();
+        for (Statement statement : statements) {
+            final Node subject = statement.getSubject().asNode();
+            if (subject.isBlank()) {
+                blankNodeStatements.computeIfAbsent(subject, k -> new ArrayList<>()).add(statement);
+            }
+        }
+
+        long h1 = 0;
+        long h2 = 0;
+        for (Statement statement : statements) {
+            final long[] hash = hash(statement, blankNodeHashes, blankNodeStatements, new HashSet<>());
+            h1 += hash[0];
+            h2 += hash[1];
+        }
+        return String.format("%016x%016x", h1, h2);
+    }
+
+    private static long[] hash(Statement statement, Map<Node, long[]> blankNodeHashes,
+                               Map<Node, List<Statement>> blankNodeStatements, Set<Node> path) {
+        final long[] s = hash(statement.getSubject().asNode(), blankNodeHashes, blankNodeStatements, path);
+        final long[] p = hash(statement.getPredicate().asNode(), blankNodeHashes, blankNodeStatements, path);
+        final long[] o = hash(statement.getObject().asNode(), blankNodeHashes, blankNodeStatements, path);
+        return new long[]{
+                mix(s[0] ^ Long.rotateLeft(p[0], 21) ^ Long.rotateLeft(o[0], 42)),
+                mix(s[1] + 31 * p[1] + 961 * o[1] + SEED2)
+        };
+    }
+
+    private static long[] hash(Node node, Map<Node, long[]> blankNodeHashes,
+                               Map<Node, List<Statement>> blankNodeStatements, Set<Node> path) {
+        if (node.isURI()) {
+            return hash(node.getURI(), 'U');
+        }
+        if (node.isLiteral()) {
+            final long[] lexical = hash(node.getLiteralLexicalForm(), 'L');
+            final long[] type = hash(node.getLiteralDatatypeURI() + '@' + node.getLiteralLanguage(), 'T');
+            return new long[]{mix(lexical[0] ^ Long.rotateLeft(type[0], 17)), mix(lexical[1] + 31 * type[1])};
+        }
+
+        final long[] cached = blankNodeHashes.get(node);
+        if (cached != null) {
+            return cached;
+        }
+        if (!path.add(node)) {
+            // cyclic structure of blank nodes
+            return hash("", 'C');
+        }
+        // A blank node is identified by its content.
+        long h1 = SEED1;
+        long h2 = SEED2;
+        for (Statement statement : blankNodeStatements.getOrDefault(node, Collections.emptyList())) {
+            final long[] p = hash(statement.getPredicate().asNode(), blankNodeHashes, blankNodeStatements, path);
+            final long[] o = hash(statement.getObject().asNode(), blankNodeHashes, blankNodeStatements, path);
+            h1 += mix(p[0] ^ Long.rotateLeft(o[0], 29));
+            h2 += mix(p[1] + 31 * o[1]);
+        }
+        path.remove(node);
+
+        final long[] result = {mix(h1), mix(h2 ^ 'B')};
+        blankNodeHashes.put(node, result);
+        return result;
+    }
+
+    private static long[] hash(String value, char kind) {
+        long h1 = SEED1 ^ kind;
+        long h2 = SEED2 + kind;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            h1 = (h1 ^ c) * 0x100000001b3L;
+            h2 = Long.rotateLeft(h2 ^ (c * 0x87c37b91114253d5L), 31) * 0x4cf5ad432745937fL;
+        }
+        return new long[]{mix(h1), mix(h2 + value.length())};
+    }
+
+    /**
+     * Finalisation step of MurmurHash3.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -2,7 +2,9 @@ package de.landsh.opendata.catalogproxy;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
 
 @SpringBootApplication
 public class DcatCatalogProxyApplication {
@@ -15,4 +17,58 @@ public class DcatCatalogProxyApplication {
     CatalogFilter catalogFilter() {
         return new CatalogFilter();
     }
+
+    @Bean
+    CatalogCache catalogCache() {
+        return new CatalogCache();
+    }
+
+    @Bean
+    HedgeBudget hedgeBudget() {
+        return new HedgeBudget();
+    }
+
+    @Bean
+    MemoryBudget memoryBudget() {
+        return new MemoryBudget();
+    }
+
+    @Bean
+    Tracer tracer() {
+        return new Tracer();
+    }
+
+    @Bean
+    ClientLimiter clientLimiter() {
+        return new ClientLimiter();
+    }
+
+    @Bean
+    RateLimitFilter rateLimitFilter(ClientLimiter clientLimiter) {
+        return new RateLimitFilter(clientLimiter);
+    }
+
+    @Bean
+    UpstreamCatalog defaultCatalog(CatalogFilter catalogFilter, CatalogCache catalogCache, HedgeBudget hedgeBudget,
+                                   MemoryBudget memoryBudget) {
+        final UpstreamCatalog catalog = new UpstreamCatalog(null, catalogFilter, catalogCache);
+        catalog.setHedgeBudget(hedgeBudget);
+        catalog.setMemoryBudget(memoryBudget);
+        return catalog;
+    }
+
+    @Bean
+    CatalogRegistry catalogRegistry(UpstreamCatalog defaultCatalog, Environment environment) {
+        return new CatalogRegistry(defaultCatalog, environment);
+    }
+
+    @Bean
+    FilterConfigWatcher filterConfigWatcher(CatalogRegistry catalogRegistry) {
+        return new FilterConfigWatcher(catalogRegistry);
+    }
+
+    @Bean
+    StartupWarmup startupWarmup(ApplicationContext applicationContext) {
+        return new StartupWarmup(applicationContext);
+    }
 }
@@ -0,0 +1,136 @@
+package de.landsh.opendata.catalogproxy;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vergibt eine feste Zahl von Verbindungen zum Upstream-Katalog. Sind alle belegt, bekommen wartende Anfragen die
+ * nächste freie Verbindung nicht in der Reihenfolge ihres Eintreffens, sondern nach Start-time Fair Queueing: jede
+ * Anfrage erhält eine virtuelle Startzeit, die je Client um <code>1 / Gewicht</code> wächst. So kommt ein Harvester,
+ * der viele Anfragen gleichzeitig stellt, nicht vor einem anderen Client mit nur einer Anfrage an die Reihe, und ein
+ * Client mit doppeltem Gewicht erhält doppelt so viele Verbindungen.
+ */
+public class FairScheduler {
+
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    /**
+     * Virtual start time of the last waiting request of every client.
+     */
+    private final Map<ClientLimiter.Client, Double> lastTags = new HashMap<>();
+    private int available;
+    private double virtualTime;
+    private long sequence;
+
+    public FairScheduler(int permits) {
+        this.available = permits;
+    }
+
+    /**
+     * Takes a permit without waiting. Waiting requests are not overtaken.
+     */
+    public synchronized boolean tryAcquire() {
+        if (available > 0 && waiters.isEmpty()) {
+            available--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Waits for a permit in the turn of the client.
+     *
+     * @return false if no permit became available within the timeout
+     */
+    public synchronized boolean acquire(ClientLimiter.Client client, long timeoutMillis) throws InterruptedException {
+        if (tryAcquire()) {
+            return true;
+        }
+
+        final Double lastTag = lastTags.get(client);
+        final double tag = Math.max(virtualTime, lastTag == null ? 0 : lastTag) + 1.0 / client.getWeight();
+        lastTags.put(client, tag);
+        final Waiter waiter = new Waiter(client, tag, sequence++);
+        waiters.add(waiter);
+        client.getWaiting().incrementAndGet();
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            while (!waiter.granted) {
+                final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            if (!cancel(waiter)) {
+                // the permit has been granted in the meantime
+                release();
+            }
+            throw e;
+        } finally {
+            client.getWaiting().decrementAndGet();
+        }
+        if (!waiter.granted) {
+            cancel(waiter);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the permit has already been granted to the waiter
+     */
+    private boolean cancel(Waiter waiter) {
+        if (waiter.granted) {
+            return false;
+        }
+        waiters.remove(waiter);
+        if (waiters.isEmpty()) {
+            lastTags.clear();
+        }
+        return true;
+    }
+
+    public synchronized void release() {
+        final Waiter next = waiters.poll();
+        if (next == null) {
+            available++;
+            return;
+        }
+        virtualTime = next.tag;
+        // without waiting requests the tags are irrelevant, every client starts at the virtual time again
+        if (waiters.isEmpty()) {
+            lastTags.clear();
+        } else {
+            lastTags.remove(next.client, next.tag);
+        }
+        next.granted = true;
+        notifyAll();
+    }
+
+    synchronized int getWaiting() {
+        return waiters.size();
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+        final ClientLimiter.Client client;
+        final double tag;
+        final long sequence;
+        boolean granted;
+
+        Waiter(ClientLimiter.Client client, double tag, long sequence) {
+            this.client = client;
+            this.tag = tag;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            final int result = Double.compare(tag, other.tag);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
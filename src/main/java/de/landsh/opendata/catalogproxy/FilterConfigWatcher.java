@@ -0,0 +1,162 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Liest die Filterregeln aus einer Datei, die zur Laufzeit geändert werden kann, ohne den Proxy neu zu starten. Die
+ * Datei hat das Format einer properties-Datei mit denselben Schlüsseln wie die Konfiguration:
+ * <code>unwantedPublishers</code> und <code>replaceURL</code> für den Standardkatalog,
+ * <code>catalog.&lt;name&gt;.unwantedPublishers</code> usw. für weitere Kataloge. Fehlt ein Schlüssel, gilt der Wert
+ * aus der Konfiguration beim Start. Die Datei wird regelmäßig auf Änderungen geprüft; eine fehlerhafte Datei wird
+ * ignoriert und die bisherigen Regeln bleiben aktiv.
+ */
+public class FilterConfigWatcher implements InitializingBean, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(FilterConfigWatcher.class);
+
+    private final CatalogRegistry catalogRegistry;
+
+    @Value("${filterConfig:}")
+    String filterConfig;
+
+    /**
+     * Time in milliseconds between two checks of the file.
+     */
+    @Value("${filterConfigInterval:10000}")
+    long interval = 10000;
+
+    private Path file;
+    private long lastModified = -1;
+    private long lastSize = -1;
+    private ScheduledExecutorService executor;
+
+    public FilterConfigWatcher(CatalogRegistry catalogRegistry) {
+        this.catalogRegistry = catalogRegistry;
+    }
+
+    /**
+     * Reloads the file if it has been changed since the last check.
+     *
+     * @return true if the file has been read
+     */
+    synchronized boolean check() {
+        long modified = -1;
+        long size = -1;
+        try {
+            if (Files.exists(file)) {
+                modified = Files.getLastModifiedTime(file).toMillis();
+                size = Files.size(file);
+            }
+        } catch (IOException e) {
+            log.warn("Cannot access filter configuration {}: {}", file, e.toString());
+            return false;
+        }
+        if (modified == lastModified && size == lastSize) {
+            return false;
+        }
+
+        final Properties properties = new Properties();
+        if (modified >= 0) {
+            try (InputStream is = Files.newInputStream(file)) {
+                properties.load(is);
+            } catch (IOException e) {
+                log.warn("Cannot read filter configuration {}: {}", file, e.toString());
+                return false;
+            }
+        } else {
+            log.info("Filter configuration {} does not exist, using the initial configuration", file);
+        }
+
+        try {
+            apply(properties);
+        } catch (RuntimeException e) {
+            log.error("Invalid filter configuration {}, keeping the current rules: {}", file, e.getMessage());
+        }
+        // An invalid file is not read again until it is changed.
+        lastModified = modified;
+        lastSize = size;
+        return true;
+    }
+
+    /**
+     * Validates the rules of all catalogs before any of them is changed.
+     */
+    private void apply(Properties properties) {
+        final List<Update> updates = new ArrayList<>();
+        for (UpstreamCatalog catalog : catalogRegistry.getAll()) {
+            final String prefix = catalog.getName() == null ? "" : "catalog." + catalog.getName() + ".";
+            final Update update = new Update(catalog, parse(properties, prefix + "unwantedPublishers"),
+                    parse(properties, prefix + "replaceURL"));
+            if (update.replaceURL != null) {
+                new FilterRules(0, Collections.emptyList(), update.replaceURL);
+            }
+            updates.add(update);
+        }
+
+        for (Update update : updates) {
+            final CatalogFilter filter = update.catalog.getCatalogFilter();
+            if (filter.updateRules(update.unwantedPublishers, update.replaceURL)) {
+                log.info("Filter rules of catalog {} changed, now version {}",
+                        update.catalog.getName() == null ? "default" : update.catalog.getName(), filter.getRulesVersion());
+            }
+        }
+    }
+
+    private static List<String> parse(Properties properties, String key) {
+        final String value = properties.getProperty(key);
+        return value == null ? null : CatalogRegistry.parseList(value);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (StringUtils.isBlank(filterConfig)) {
+            return;
+        }
+        file = Paths.get(filterConfig);
+        check();
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "filter-config-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class Update {
+        final UpstreamCatalog catalog;
+        final List<String> unwantedPublishers;
+        final List<String> replaceURL;
+
+        Update(UpstreamCatalog catalog, List<String> unwantedPublishers, List<String> replaceURL) {
+            this.catalog = catalog;
+            this.unwantedPublishers = unwantedPublishers;
+            this.replaceURL = replaceURL;
+        }
+    }
+}
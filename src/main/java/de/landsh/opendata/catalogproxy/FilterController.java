@@ -1,68 +1,141 @@
 package de.landsh.opendata.catalogproxy;
 
-import org.apache.commons.lang3.StringUtils;
-import org.apache.jena.rdf.model.Model;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.Writer;
-import java.net.URL;
-import java.net.URLEncoder;
+import java.io.OutputStream;
+import java.util.Map;
 
 @Controller
 public class FilterController {
     private static final Logger log = LoggerFactory.getLogger(FilterController.class);
-    private final CatalogFilter catalogFilter;
-    @Value("${remoteURL:https://opendata.schleswig-holstein.de/}")
-    String remoteURL;
 
-    public FilterController(CatalogFilter filter) {
-        this.catalogFilter = filter;
+    /**
+     * Identifies the trace of the request in <code>/debug/traces</code>.
+     */
+    static final String TRACE_ID_HEADER = "X-Trace-Id";
+    private final CatalogRegistry catalogRegistry;
+    private final Tracer tracer;
+
+    public FilterController(CatalogRegistry catalogRegistry, Tracer tracer) {
+        this.catalogRegistry = catalogRegistry;
+        this.tracer = tracer;
     }
 
-    @RequestMapping(value = "/catalog.xml", produces = "application/rdf+xml")
-    public void catalog(@RequestParam(required = false) Integer page,
+    @RequestMapping(value = {"/catalog.xml", "/{catalogName}/catalog.xml"}, produces = "application/rdf+xml")
+    public void catalog(@PathVariable(required = false) String catalogName,
+                        @RequestParam(required = false) Integer page,
                         @RequestParam(required = false) String q,
                         @RequestParam(required = false) String fq,
                         @RequestParam(required = false, name = "modified_since") String modifiedSince,
+                        @RequestHeader(required = false, name = Tracer.TRACEPARENT) String traceparent,
                         HttpServletResponse response) throws IOException {
         if (page == null)
             page = 1;
 
-        log.debug("catalog.xml?page={}", page);
+        final UpstreamCatalog catalog = catalogRegistry.get(catalogName);
+        if (catalog == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        log.debug("{}catalog.xml?page={}", catalogName == null ? "" : catalogName + "/", page);
 
-        final StringBuilder url = new StringBuilder(remoteURL);
-        url.append("catalog.xml?page=");
-        url.append(page);
-        if (StringUtils.isNotBlank(modifiedSince)) {
-            url.append("&modified_since=");
-            url.append(URLEncoder.encode(modifiedSince, "utf-8"));
+        try (Tracer.Span trace = tracer.startTrace("catalog.xml", traceparent)) {
+            trace.attribute("catalog", catalogName == null ? "default" : catalogName).attribute("page", page);
+            response.setHeader(TRACE_ID_HEADER, trace.getTraceId());
+            final CatalogCache.Result result;
+            try {
+                result = catalog.page(page, q, fq, modifiedSince);
+            } catch (CircuitBreaker.CircuitOpenException e) {
+                trace.attribute("status", HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                serviceUnavailable(response, e.getRetryAfterMillis(), e.getMessage());
+                return;
+            } catch (MemoryBudget.RejectedException e) {
+                trace.attribute("status", HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                serviceUnavailable(response, e.getRetryAfterMillis(), e.getMessage());
+                return;
+            } catch (IOException | RuntimeException e) {
+                trace.attribute("error", e.toString());
+                throw e;
+            }
+            trace.attribute("age", result.getAge());
+            if (result.getWarning() != null) {
+                trace.attribute("warning", result.getWarning());
+            }
+            Tracer.span("response.write", () -> write(response, result));
         }
-        if (StringUtils.isNotBlank(q)) {
-            url.append("&q=");
-            url.append(URLEncoder.encode(q, "utf-8"));
+    }
+
+    private static void write(HttpServletResponse response, CatalogCache.Result result) throws IOException {
+        response.setCharacterEncoding("utf-8");
+        response.setContentType("application/rdf+xml");
+        response.setHeader("Age", String.valueOf(result.getAge()));
+        if (result.getWarning() != null) {
+            response.setHeader("Warning", result.getWarning());
         }
-        if (StringUtils.isNotBlank(fq)) {
-            url.append("&fq=");
-            url.append(URLEncoder.encode(fq, "utf-8"));
+        for (Map.Entry<String, String> header : result.getHeaders().entrySet()) {
+            response.setHeader(header.getKey(), header.getValue());
+        }
+        response.setContentLength(result.getBody().length);
+
+        final OutputStream out = response.getOutputStream();
+        out.write(result.getBody());
+        out.close();
+    }
+
+    private static void serviceUnavailable(HttpServletResponse response, long retryAfterMillis, String message) throws IOException {
+        response.setHeader("Retry-After", String.valueOf((retryAfterMillis + 999) / 1000));
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, message);
+    }
+
+    /**
+     * Liefert einen einzelnen gefilterten Datensatz, ohne den Katalog seitenweise zu durchsuchen. Gefunden werden nur
+     * Datensätze aus Seiten, die der Proxy bereits abgerufen hat.
+     *
+     * @param uri        URI of the dataset or of one of its distributions
+     * @param identifier dct:identifier of the dataset
+     */
+    @RequestMapping(value = {"/dataset", "/{catalogName}/dataset"}, produces = "application/rdf+xml")
+    public void dataset(@PathVariable(required = false) String catalogName,
+                        @RequestParam(required = false) String uri,
+                        @RequestParam(required = false) String identifier,
+                        HttpServletResponse response) throws IOException {
+        final UpstreamCatalog catalog = catalogRegistry.get(catalogName);
+        if (catalog == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (uri == null && identifier == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Parameter uri or identifier is required");
+            return;
+        }
+
+        final DatasetIndex.Entry entry = uri != null ? catalog.getDatasetIndex().findByURI(uri)
+                : catalog.getDatasetIndex().findByIdentifier(identifier);
+        if (entry == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
 
-        final InputStream is = new URL(url.toString()).openStream();
-        final Model model = catalogFilter.work(is);
-        is.close();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        entry.toModel().write(body);
 
         response.setCharacterEncoding("utf-8");
         response.setContentType("application/rdf+xml");
+        response.setHeader("Age", String.valueOf(Math.max(0, (System.currentTimeMillis() - entry.getIndexed()) / 1000)));
+        response.setContentLength(body.size());
 
-        final Writer writer = response.getWriter();
-        model.write(writer);
-        writer.close();
+        final OutputStream out = response.getOutputStream();
+        body.writeTo(out);
+        out.close();
     }
 }
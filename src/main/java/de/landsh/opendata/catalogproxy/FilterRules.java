@@ -0,0 +1,75 @@
+package de.landsh.opendata.catalogproxy;
+
+import java.util.*;
+
+/**
+ * Die konfigurierbaren Regeln eines {@link CatalogFilter}: unerwünschte Herausgeber und die Ersetzungen in Download-
+ * und Access-URLs. Ein Regelsatz ist unveränderlich und wird als Ganzes ausgetauscht. Die Versionsnummer steigt mit
+ * jedem Austausch, so dass Ergebnisse, die mit älteren Regeln erzeugt wurden, erkannt werden können. Sie wird in jeder
+ * Instanz des Proxys getrennt gezählt; über Instanzen hinweg werden Regeln an ihrem {@link #getFingerprint()} erkannt.
+ */
+public final class FilterRules {
+
+    static final FilterRules EMPTY = new FilterRules(0, Collections.emptyList(), Collections.emptyList());
+
+    private final long version;
+    private final Set<String> unwantedPublishers;
+    private final Map<String, String> urlReplacements;
+    private final String fingerprint;
+
+    /**
+     * @param replaceURL pairs of URL prefixes and their replacements
+     * @throws IllegalArgumentException if <code>replaceURL</code> has an odd number of elements
+     */
+    FilterRules(long version, Collection<String> unwantedPublishers, List<String> replaceURL) {
+        if (replaceURL.size() % 2 != 0) {
+            throw new IllegalArgumentException("replaceURL must be an array of even size, e.g. replaceURL= {'http://10.61.35.179/','https://opendata.schleswig-holstein.de/'}");
+        }
+        this.version = version;
+        this.unwantedPublishers = Collections.unmodifiableSet(new HashSet<>(unwantedPublishers));
+        final Map<String, String> replacements = new LinkedHashMap<>();
+        for (int i = 0; i < replaceURL.size(); i += 2) {
+            replacements.put(replaceURL.get(i), replaceURL.get(i + 1));
+        }
+        this.urlReplacements = Collections.unmodifiableMap(replacements);
+
+        final StringBuilder rules = new StringBuilder();
+        for (String publisher : new TreeSet<>(this.unwantedPublishers)) {
+            rules.append(publisher).append('\n');
+        }
+        rules.append('\n');
+        for (Map.Entry<String, String> replacement : urlReplacements.entrySet()) {
+            rules.append(replacement.getKey()).append(' ').append(replacement.getValue()).append('\n');
+        }
+        this.fingerprint = TrafficArchive.urlHash(rules.toString());
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return hash of the rules, the same in every instance that uses the same rules
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public Set<String> getUnwantedPublishers() {
+        return unwantedPublishers;
+    }
+
+    public Map<String, String> getUrlReplacements() {
+        return urlReplacements;
+    }
+
+    /**
+     * The replacements are compared in order, because the first matching prefix is applied.
+     *
+     * @return true if both rule sets filter in the same way, regardless of their versions
+     */
+    boolean sameRules(FilterRules other) {
+        return unwantedPublishers.equals(other.unwantedPublishers)
+                && new ArrayList<>(urlReplacements.entrySet()).equals(new ArrayList<>(other.urlReplacements.entrySet()));
+    }
+}
@@ -0,0 +1,142 @@
+package de.landsh.opendata.catalogproxy;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Zählt je Herausgeber, wie viele Datensätze übernommen oder von welcher Regel verworfen wurden und wie viele
+ * Distributionen eine ergänzte downloadURL oder dct:rights Angabe erhalten haben. Die Zähler beschreiben den aktuellen
+ * Stand: für jeden Datensatz wird nur sein letztes Ergebnis gezählt, so dass wiederholte Abrufe derselben Seite die
+ * Zahlen nicht verfälschen. Ändert sich das Ergebnis eines Datensatzes, werden nur die Differenzen addiert.
+ */
+public class FilterStatistics {
+
+    static final String NO_PUBLISHER = "none";
+
+    public enum Counter {
+        /**
+         * Datasets that are part of the filtered catalog.
+         */
+        INCLUDED("included"),
+        /**
+         * Datasets of a publisher listed in <code>unwantedPublishers</code>.
+         */
+        UNWANTED_PUBLISHER("unwantedPublisher"),
+        /**
+         * Datasets without a distribution in a format other than PDF, DOC, DOCX or HTML.
+         */
+        NO_VALID_DISTRIBUTION("noValidDistribution"),
+        /**
+         * Distributions that received the accessURL as downloadURL.
+         */
+        DOWNLOAD_URL_ADDED("downloadURLAdded"),
+        /**
+         * Distributions that received their license as dct:rights.
+         */
+        RIGHTS_ADDED("rightsAdded");
+
+        private final String key;
+
+        Counter(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    private final Map<String, Outcome> datasets = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder[]> publishers = new ConcurrentHashMap<>();
+
+    /**
+     * Records the latest result of the specified dataset.
+     */
+    void record(String dataset, Outcome outcome) {
+        final Outcome previous = datasets.put(dataset, outcome);
+        if (previous != outcome) {
+            add(previous, -1);
+            add(outcome, 1);
+        }
+    }
+
+    /**
+     * Forgets a dataset, e.g. because it could not be parsed.
+     */
+    void remove(String dataset) {
+        add(datasets.remove(dataset), -1);
+    }
+
+    private void add(Outcome outcome, int sign) {
+        if (outcome == null) {
+            return;
+        }
+        final LongAdder[] counters = publishers.computeIfAbsent(outcome.publisher, k -> {
+            final LongAdder[] result = new LongAdder[Counter.values().length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = new LongAdder();
+            }
+            return result;
+        });
+        for (int i = 0; i < counters.length; i++) {
+            if (outcome.counts[i] != 0) {
+                counters[i].add(sign * (long) outcome.counts[i]);
+            }
+        }
+    }
+
+    public long get(String publisher, Counter counter) {
+        final LongAdder[] counters = publishers.get(publisher == null ? NO_PUBLISHER : publisher);
+        return counters == null ? 0 : counters[counter.ordinal()].sum();
+    }
+
+    /**
+     * @return the totals of all counters and the counters of every publisher
+     */
+    public Map<String, Object> toMap() {
+        final long[] totals = new long[Counter.values().length];
+        final Map<String, Object> byPublisher = new TreeMap<>();
+        for (Map.Entry<String, LongAdder[]> entry : publishers.entrySet()) {
+            final long[] values = new long[totals.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = entry.getValue()[i].sum();
+                totals[i] += values[i];
+            }
+            byPublisher.put(entry.getKey(), counters(values));
+        }
+
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("datasets", datasets.size());
+        result.put("total", counters(totals));
+        result.put("publishers", byPublisher);
+        return result;
+    }
+
+    private static Map<String, Long> counters(long[] values) {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (Counter counter : Counter.values()) {
+            result.put(counter.getKey(), values[counter.ordinal()]);
+        }
+        return result;
+    }
+
+    /**
+     * Das Ergebnis der Filterung eines Datensatzes. Es wird zusammen mit dem Filterergebnis zwischengespeichert.
+     */
+    static final class Outcome {
+        private final String publisher;
+        private final int[] counts = new int[Counter.values().length];
+
+        Outcome(String publisher) {
+            this.publisher = publisher == null ? NO_PUBLISHER : publisher;
+        }
+
+        Outcome add(Counter counter, int count) {
+            counts[counter.ordinal()] += count;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Begrenzt die zusätzliche Last, die wiederholte (hedged) Anfragen auf den Upstream-Katalogen erzeugen. Jede Anfrage
+ * an einen Upstream-Katalog schreibt einen Bruchteil <code>hedgeRatio</code> einer Wiederholung gut, jede Wiederholung
+ * verbraucht eine ganze. Das Guthaben ist auf <code>hedgeBurst</code> Wiederholungen begrenzt, so dass auch nach einer
+ * langen ruhigen Phase nicht beliebig viele Wiederholungen auf einmal gesendet werden.
+ */
+public class HedgeBudget {
+
+    private static final long UNIT = 1000000;
+
+    /**
+     * Maximum share of upstream requests that may be duplicated.
+     */
+    @Value("${hedgeRatio:0.05}")
+    double ratio = 0.05;
+
+    @Value("${hedgeBurst:10}")
+    int burst = 10;
+
+    private final AtomicLong credit = new AtomicLong();
+
+    /**
+     * Called for every primary upstream request.
+     */
+    public void onRequest() {
+        final long increment = (long) (ratio * UNIT);
+        final long max = burst * UNIT;
+        long current;
+        do {
+            current = credit.get();
+            if (current >= max) {
+                return;
+            }
+        } while (!credit.compareAndSet(current, Math.min(max, current + increment)));
+    }
+
+    /**
+     * @return <code>true</code> if a duplicate request may be sent
+     */
+    public boolean tryAcquire() {
+        long current;
+        do {
+            current = credit.get();
+            if (current < UNIT) {
+                return false;
+            }
+        } while (!credit.compareAndSet(current, current - UNIT));
+        return true;
+    }
+}
@@ -0,0 +1,49 @@
+package de.landsh.opendata.catalogproxy;
+
+import java.util.Arrays;
+
+/**
+ * Merkt sich die Antwortzeiten der letzten Anfragen an einen Endpunkt und liefert daraus Perzentile.
+ */
+public class LatencyTracker {
+
+    private final long[] samples;
+    private int count;
+    private int next;
+
+    /**
+     * @param size number of recent samples that are considered
+     */
+    public LatencyTracker(int size) {
+        this.samples = new long[size];
+    }
+
+    public synchronized void add(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * @param p percentile between 0 and 100
+     * @return latency in milliseconds or -1 if there are no samples
+     */
+    public long percentile(double p) {
+        final long[] sorted;
+        synchronized (this) {
+            if (count == 0) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        final int index = (int) Math.ceil(p / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,263 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Begrenzt den Speicher, den gleichzeitig gefilterte Seiten belegen. Der Bedarf einer Seite wird aus der Größe der
+ * Antwort des Upstream-Katalogs geschätzt (<code>memoryFactor</code> Bytes Heap je Byte RDF/XML für das Jena Model, das
+ * gepufferte Dokument und die Ausgabe). Ist das Budget erschöpft, wartet eine Anfrage bis zu
+ * <code>memoryQueueTimeout</code> Millisekunden auf freien Speicher und wird danach abgewiesen. Seiten, die größer als
+ * <code>maxPageBytes</code> sind, werden schon beim Lesen abgebrochen.
+ * <p>
+ * Ist die Größe der Antwort nicht bekannt, wird der Bedarf mit den gelesenen Bytes fortgeschrieben. Dabei wird nicht
+ * gewartet, weil sich sonst zwei wachsende Anfragen gegenseitig blockieren könnten.
+ */
+public class MemoryBudget {
+
+    /**
+     * Reserved for a page without Content-Length before the first bytes are read.
+     */
+    static final long INITIAL_PAGE_BYTES = 256 * 1024;
+
+    /**
+     * Bytes of heap reserved for the filtered pages of all catalogs. 0 uses half of the maximum heap size.
+     */
+    @Value("${memoryBudget:0}")
+    long maxBytes;
+
+    /**
+     * Estimated bytes of heap per byte of the upstream page.
+     */
+    @Value("${memoryFactor:10}")
+    int factor = 10;
+
+    /**
+     * Time in milliseconds a request waits for free memory before it is rejected.
+     */
+    @Value("${memoryQueueTimeout:10000}")
+    long queueTimeout = 10000;
+
+    /**
+     * Maximum size of an upstream page in bytes. 0 allows pages that fit into the budget on their own.
+     */
+    @Value("${maxPageBytes:0}")
+    long maxPageBytes;
+
+    private long used;
+    /**
+     * Highest value of <code>used</code> since the start.
+     */
+    private long peak;
+    private long admitted;
+    private long queued;
+    private long rejected;
+    private long oversized;
+
+    public Reservation open() {
+        return new Reservation();
+    }
+
+    long estimate(long pageBytes) {
+        return pageBytes * factor;
+    }
+
+    /**
+     * @throws PageTooLargeException if the page exceeds <code>maxPageBytes</code>
+     */
+    void checkPageSize(long pageBytes, String url) throws PageTooLargeException {
+        if (pageBytes > maxPageBytes()) {
+            synchronized (this) {
+                oversized++;
+            }
+            throw new PageTooLargeException("Upstream page " + url + " exceeds the maximum size of " + maxPageBytes() + " bytes");
+        }
+    }
+
+    long maxBytes() {
+        return maxBytes > 0 ? maxBytes : Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    long maxPageBytes() {
+        return maxPageBytes > 0 ? maxPageBytes : maxBytes() / factor;
+    }
+
+    private synchronized void acquire(long bytes, boolean wait) throws RejectedException {
+        final long maxBytes = maxBytes();
+        if (used + bytes <= maxBytes) {
+            used += bytes;
+            peak = Math.max(peak, used);
+            admitted++;
+            return;
+        }
+        if (!wait || bytes > maxBytes) {
+            rejected++;
+            throw new RejectedException(queueTimeout);
+        }
+
+        queued++;
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+        try {
+            while (used + bytes > maxBytes) {
+                final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    rejected++;
+                    throw new RejectedException(queueTimeout);
+                }
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejected++;
+            throw new RejectedException(queueTimeout);
+        }
+        used += bytes;
+        peak = Math.max(peak, used);
+        admitted++;
+    }
+
+    private synchronized void release(long bytes) {
+        used -= bytes;
+        notifyAll();
+    }
+
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    public synchronized Map<String, Object> getMetrics() {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("maxBytes", maxBytes());
+        result.put("usedBytes", used);
+        result.put("peakBytes", peak);
+        result.put("maxPageBytes", maxPageBytes());
+        result.put("admitted", admitted);
+        result.put("queued", queued);
+        result.put("rejected", rejected);
+        result.put("oversized", oversized);
+        return result;
+    }
+
+    /**
+     * Der Speicher, der für die Bearbeitung einer Seite reserviert ist. Er wird mit {@link #close()} freigegeben.
+     */
+    public class Reservation implements AutoCloseable {
+        private long bytes;
+
+        /**
+         * Reserves memory for a page of the specified size, waiting for free memory if necessary.
+         */
+        public void reservePage(long pageBytes, String url) throws IOException {
+            try (Tracer.Span span = Tracer.span("memory.reserve")) {
+                span.attribute("bytes", estimate(pageBytes));
+                checkPageSize(pageBytes, url);
+                growTo(estimate(pageBytes), true);
+            }
+        }
+
+        private void growTo(long total, boolean wait) throws RejectedException {
+            if (total > bytes) {
+                acquire(total - bytes, wait);
+                bytes = total;
+            }
+        }
+
+        /**
+         * Counts the bytes read from the stream. The reservation grows with them, and reading fails as soon as the page
+         * exceeds <code>maxPageBytes</code> or the budget.
+         */
+        public InputStream track(InputStream in, String url) {
+            return new CountingInputStream(in, url, this);
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public void close() {
+            if (bytes > 0) {
+                release(bytes);
+                bytes = 0;
+            }
+        }
+    }
+
+    /**
+     * Fails as soon as more than <code>maxPageBytes</code> have been read from the stream. Used where the complete page
+     * is read before memory is reserved for it.
+     */
+    public InputStream limit(InputStream in, String url) {
+        return new CountingInputStream(in, url, null);
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+        private final String url;
+        private final Reservation reservation;
+        private long count;
+
+        CountingInputStream(InputStream in, String url, Reservation reservation) {
+            super(in);
+            this.url = url;
+            this.reservation = reservation;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) throws IOException {
+            count += n;
+            checkPageSize(count, url);
+            if (reservation != null && estimate(count) > reservation.bytes) {
+                // grow in steps, so that the budget is not locked for every buffer
+                reservation.growTo(estimate(Math.min(count + count / 4, maxPageBytes())), false);
+            }
+        }
+    }
+
+    /**
+     * Die Anfrage wurde abgewiesen, weil nicht genug Speicher frei ist.
+     */
+    public static class RejectedException extends IOException {
+        private final long retryAfterMillis;
+
+        RejectedException(long retryAfterMillis) {
+            super("Not enough memory to process the page, try again later");
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        public long getRetryAfterMillis() {
+            return retryAfterMillis;
+        }
+    }
+
+    /**
+     * Die Seite des Upstream-Katalogs ist größer als <code>maxPageBytes</code>.
+     */
+    public static class PageTooLargeException extends IOException {
+        PageTooLargeException(String message) {
+            super(message);
+        }
+    }
+}
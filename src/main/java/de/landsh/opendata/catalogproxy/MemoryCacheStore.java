@@ -0,0 +1,59 @@
+package de.landsh.opendata.catalogproxy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hält die Einträge des Caches im Speicher der eigenen Instanz. Gleichzeitige Abrufe derselben Seite fasst bereits der
+ * {@link CatalogCache} zusammen, daher ist keine Sperre nötig.
+ */
+public class MemoryCacheStore implements CacheStore {
+
+    private final Map<String, CatalogCache.Entry> entries = new ConcurrentHashMap<>();
+
+    @Override
+    public CatalogCache.Entry get(String key) {
+        return entries.get(key);
+    }
+
+    @Override
+    public void put(String key, CatalogCache.Entry entry) {
+        entries.put(key, entry);
+    }
+
+    @Override
+    public int removeOtherRules(String rules) {
+        final int before = entries.size();
+        entries.values().removeIf(entry -> !rules.equals(entry.getContent().getRules()));
+        return before - entries.size();
+    }
+
+    @Override
+    public void evictOldest() {
+        String oldestKey = null;
+        long oldest = Long.MAX_VALUE;
+        for (Map.Entry<String, CatalogCache.Entry> e : entries.entrySet()) {
+            if (e.getValue().getCreated() < oldest) {
+                oldest = e.getValue().getCreated();
+                oldestKey = e.getKey();
+            }
+        }
+        if (oldestKey != null) {
+            entries.remove(oldestKey);
+        }
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public boolean tryLock(String key) {
+        return true;
+    }
+
+    @Override
+    public void unlock(String key) {
+    }
+}
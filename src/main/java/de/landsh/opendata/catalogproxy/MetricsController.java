@@ -0,0 +1,73 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Liefert den Zustand der Verbindungen zu den Upstream-Katalogen als JSON.
+ */
+@Controller
+public class MetricsController {
+
+    private final CatalogRegistry catalogRegistry;
+    private final ClientLimiter clientLimiter;
+
+    public MetricsController(CatalogRegistry catalogRegistry, ClientLimiter clientLimiter) {
+        this.catalogRegistry = catalogRegistry;
+        this.clientLimiter = clientLimiter;
+    }
+
+    @RequestMapping(value = "/metrics/upstream", produces = "application/json")
+    @ResponseBody
+    public Map<String, Object> upstream() {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        for (UpstreamCatalog catalog : catalogRegistry.getAll()) {
+            final Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("circuitBreaker", catalog.getCircuitBreaker().getMetrics());
+            metrics.put("hedges", catalog.getHedges());
+            metrics.put("hedgeWins", catalog.getHedgeWins());
+            metrics.put("skippedDatasets", catalog.getSkippedDatasets());
+            metrics.put("indexedDatasets", catalog.getDatasetIndex().size());
+            metrics.put("filterRulesVersion", catalog.getCatalogFilter().getRulesVersion());
+            result.put(catalog.getName() == null ? "default" : catalog.getName(), metrics);
+        }
+        return result;
+    }
+
+    /**
+     * Liefert die Auslastung des gemeinsamen Speicherbudgets für die Filterung.
+     */
+    @RequestMapping(value = "/metrics/memory", produces = "application/json")
+    @ResponseBody
+    public Map<String, Object> memory() {
+        return catalogRegistry.getDefaultCatalog().getMemoryBudget().getMetrics();
+    }
+
+    /**
+     * Liefert die zugelassenen und abgewiesenen Anfragen je Client.
+     */
+    @RequestMapping(value = "/metrics/clients", produces = "application/json")
+    @ResponseBody
+    public Map<String, Object> clients() {
+        return clientLimiter.getMetrics();
+    }
+
+    /**
+     * Liefert die Zähler der Filterregeln je Katalog und Herausgeber. Sie werden beim Filtern fortgeschrieben, die
+     * Abfrage liest keine Katalogdaten.
+     */
+    @RequestMapping(value = "/stats", produces = "application/json")
+    @ResponseBody
+    public Map<String, Object> stats() {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        for (UpstreamCatalog catalog : catalogRegistry.getAll()) {
+            result.put(catalog.getName() == null ? "default" : catalog.getName(),
+                    catalog.getCatalogFilter().getStatistics().toMap());
+        }
+        return result;
+    }
+}
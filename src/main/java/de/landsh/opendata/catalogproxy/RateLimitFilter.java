@@ -0,0 +1,58 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Wendet den {@link ClientLimiter} auf die Abrufe von Katalogseiten und Datensätzen an. Anfragen eines Clients, dessen
+ * Token Bucket leer ist, werden mit <code>429 Too Many Requests</code> und <code>Retry-After</code> abgewiesen. Läuft
+ * der Proxy hinter einem Reverse Proxy, muss <code>server.forward-headers-strategy</code> gesetzt sein, damit die
+ * IP-Adresse des Clients und nicht die des Reverse Proxys verwendet wird.
+ */
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(RateLimitFilter.class);
+
+    private final ClientLimiter clientLimiter;
+
+    public RateLimitFilter(ClientLimiter clientLimiter) {
+        this.clientLimiter = clientLimiter;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        final String path = request.getRequestURI();
+        return !path.endsWith("/catalog.xml") && !path.endsWith("/dataset");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        final ClientLimiter.Client client = clientLimiter.identify(request.getHeader(clientLimiter.getApiKeyHeader()),
+                request.getRemoteAddr());
+        final long retryAfterMillis = clientLimiter.tryAcquire(client);
+        if (retryAfterMillis > 0) {
+            log.debug("Too many requests from {}", client.getId());
+            response.setHeader("Retry-After", String.valueOf((retryAfterMillis + 999) / 1000));
+            response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Too many requests, try again later");
+            return;
+        }
+
+        client.getActive().incrementAndGet();
+        ClientLimiter.setCurrent(client);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            ClientLimiter.setCurrent(null);
+            client.getActive().decrementAndGet();
+        }
+    }
+}
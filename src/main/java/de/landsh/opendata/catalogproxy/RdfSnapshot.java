@@ -0,0 +1,217 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.jena.datatypes.RDFDatatype;
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.vocabulary.XSD;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binäre Kodierung gefilterter Graphen. Ein Snapshot besteht aus einem Wörterbuch, das jeden verwendeten Knoten genau
+ * einmal enthält, gefolgt von den Tripeln als Indizes in dieses Wörterbuch. Im Gegensatz zu RDF/XML kann ein Snapshot
+ * ohne XML-Parser direkt in den Arbeitsgraphen eingelesen werden, und wiederholte URIs (Prädikate, Lizenzen,
+ * Formate) belegen nur einmal Platz.
+ * <p>
+ * Blank Nodes werden bei jedem Einlesen neu erzeugt, so wie beim Einlesen einer Datei.
+ */
+public final class RdfSnapshot {
+
+    private static final int MAGIC = 0x52444653; // "RDFS"
+    private static final int VERSION = 1;
+
+    private static final byte URI = 'U';
+    private static final byte BLANK = 'B';
+    private static final byte PLAIN_LITERAL = 'S';
+    private static final byte LANG_LITERAL = 'L';
+    private static final byte TYPED_LITERAL = 'T';
+
+    private RdfSnapshot() {
+    }
+
+    public static byte[] encode(Graph graph) {
+        return encode(graph.find());
+    }
+
+    public static byte[] encode(Iterator<Triple> triples) {
+        final Map<Node, Integer> dictionary = new HashMap<>();
+        final List<Node> nodes = new ArrayList<>();
+        final Buffer tripleData = new Buffer();
+        int count = 0;
+
+        while (triples.hasNext()) {
+            final Triple triple = triples.next();
+            tripleData.writeVarInt(index(triple.getSubject(), dictionary, nodes));
+            tripleData.writeVarInt(index(triple.getPredicate(), dictionary, nodes));
+            tripleData.writeVarInt(index(triple.getObject(), dictionary, nodes));
+            count++;
+        }
+
+        final Buffer out = new Buffer();
+        out.writeInt(MAGIC);
+        out.writeVarInt(VERSION);
+        out.writeVarInt(nodes.size());
+        for (Node node : nodes) {
+            writeNode(out, node);
+        }
+        out.writeVarInt(count);
+        out.append(tripleData);
+        return out.toByteArray();
+    }
+
+    private static int index(Node node, Map<Node, Integer> dictionary, List<Node> nodes) {
+        Integer index = dictionary.get(node);
+        if (index == null) {
+            index = nodes.size();
+            dictionary.put(node, index);
+            nodes.add(node);
+        }
+        return index;
+    }
+
+    private static void writeNode(Buffer out, Node node) {
+        if (node.isURI()) {
+            out.write(URI);
+            out.writeString(node.getURI());
+        } else if (node.isBlank()) {
+            out.write(BLANK);
+        } else if (node.isLiteral()) {
+            final String language = node.getLiteralLanguage();
+            final String datatype = node.getLiteralDatatypeURI();
+            if (language != null && !language.isEmpty()) {
+                out.write(LANG_LITERAL);
+                out.writeString(node.getLiteralLexicalForm());
+                out.writeString(language);
+            } else if (datatype == null || XSD.xstring.getURI().equals(datatype)) {
+                out.write(PLAIN_LITERAL);
+                out.writeString(node.getLiteralLexicalForm());
+            } else {
+                out.write(TYPED_LITERAL);
+                out.writeString(node.getLiteralLexicalForm());
+                out.writeString(datatype);
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported node " + node);
+        }
+    }
+
+    /**
+     * Adds the triples of the snapshot to the specified graph.
+     */
+    public static void decode(byte[] snapshot, Graph graph) {
+        final Reader in = new Reader(snapshot);
+        if (in.readInt() != MAGIC || in.readVarInt() != VERSION) {
+            throw new IllegalArgumentException("Not a snapshot");
+        }
+
+        final Node[] nodes = new Node[in.readVarInt()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = readNode(in);
+        }
+
+        final int count = in.readVarInt();
+        for (int i = 0; i < count; i++) {
+            final Node subject = nodes[in.readVarInt()];
+            final Node predicate = nodes[in.readVarInt()];
+            final Node object = nodes[in.readVarInt()];
+            graph.add(Triple.create(subject, predicate, object));
+        }
+    }
+
+    private static Node readNode(Reader in) {
+        final byte kind = in.read();
+        switch (kind) {
+            case URI:
+                return NodeFactory.createURI(in.readString());
+            case BLANK:
+                return NodeFactory.createBlankNode();
+            case PLAIN_LITERAL:
+                return NodeFactory.createLiteral(in.readString());
+            case LANG_LITERAL:
+                return NodeFactory.createLiteral(in.readString(), in.readString());
+            case TYPED_LITERAL:
+                final String lexicalForm = in.readString();
+                final RDFDatatype datatype = TypeMapper.getInstance().getSafeTypeByName(in.readString());
+                return NodeFactory.createLiteral(lexicalForm, datatype);
+            default:
+                throw new IllegalArgumentException("Unknown node type " + kind);
+        }
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        Buffer() {
+            super(1024);
+        }
+
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        void writeString(String value) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void append(Buffer other) {
+            write(other.buf, 0, other.count);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        byte read() {
+            return data[position++];
+        }
+
+        int readInt() {
+            return (read() & 0xFF) << 24 | (read() & 0xFF) << 16 | (read() & 0xFF) << 8 | (read() & 0xFF);
+        }
+
+        int readVarInt() {
+            int result = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = read();
+                result |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+
+        String readString() {
+            final int length = readVarInt();
+            final String result = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Meldet, ob die Anwendung Anfragen annimmt. Das ist erst nach dem Aufwärmen ({@link StartupWarmup}) der Fall.
+ */
+@Controller
+public class ReadinessController {
+
+    private final ApplicationAvailability applicationAvailability;
+
+    public ReadinessController(ApplicationAvailability applicationAvailability) {
+        this.applicationAvailability = applicationAvailability;
+    }
+
+    @RequestMapping(value = "/ready", produces = "text/plain")
+    public void ready(HttpServletResponse response) throws IOException {
+        final ReadinessState state = applicationAvailability.getReadinessState();
+
+        response.setStatus(state == ReadinessState.ACCEPTING_TRAFFIC ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setContentType("text/plain");
+        response.getWriter().write(state.name());
+    }
+}
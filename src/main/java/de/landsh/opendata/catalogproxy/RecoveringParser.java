@@ -0,0 +1,224 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.ErrorHandler;
+import org.apache.jena.riot.system.ErrorHandlerFactory;
+import org.apache.jena.vocabulary.DCAT;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Liest eine catalog.xml Seite so streng ein wie bisher. Enthält ein einzelner Datensatz einen Fehler, den
+ * {@link FilterInvalidRDF} nicht beheben kann, wird nur das <code>dcat:dataset</code> Element, in dem der Fehler
+ * gemeldet wurde, übersprungen und die Seite erneut eingelesen. Das Element wird über den Namensraum von DCAT erkannt,
+ * unabhängig vom Präfix und vom Zeilenumbruch. Seine Zeichen werden durch Leerzeichen ersetzt, so dass Zeile und Spalte
+ * weiterer Fehlermeldungen gültig bleiben.
+ */
+class RecoveringParser {
+
+    private static final Logger log = LoggerFactory.getLogger(RecoveringParser.class);
+
+    private static final Pattern DCAT_NAMESPACE = Pattern.compile(
+            "xmlns(?::([\\w.-]+))?\\s*=\\s*[\"']" + Pattern.quote(DCAT.NS) + "[\"']");
+    private static final Pattern ABOUT = Pattern.compile(":about\\s*=\\s*[\"']([^\"']*)[\"']");
+
+    private RecoveringParser() {
+    }
+
+    /**
+     * @param document        RDF/XML, already processed by {@link FilterInvalidRDF}
+     * @param maxSkipped      maximum number of datasets that may be skipped before the page is considered broken
+     * @param skippedDatasets receives the URIs of the skipped datasets, may be <code>null</code>
+     * @throws RiotException if the document contains an error outside of a dataset or too many broken datasets
+     */
+    static Model parse(byte[] document, String baseURL, int maxSkipped, List<String> skippedDatasets) {
+        byte[] current = document;
+        char[] text = null;
+        List<String> elementNames = null;
+        int skipped = 0;
+
+        while (true) {
+            final Model model = ModelFactory.createDefaultModel();
+            final LocatingErrorHandler errorHandler = new LocatingErrorHandler();
+            try {
+                RDFParser.create()
+                        .source(new ByteArrayInputStream(current))
+                        .lang(RDFLanguages.RDFXML)
+                        .errorHandler(errorHandler)
+                        .base(baseURL)
+                        .parse(model);
+                return model;
+            } catch (RiotException e) {
+                if (skipped >= maxSkipped) {
+                    throw e;
+                }
+                if (text == null) {
+                    text = new String(document, StandardCharsets.UTF_8).toCharArray();
+                    elementNames = datasetElementNames(new String(text));
+                }
+                final String content = new String(text);
+                final int offset = errorHandler.line > 0
+                        ? offset(content, errorHandler.line, errorHandler.col) : locate(content, e.getMessage());
+                final int[] element = offset < 0 ? null : datasetElement(content, elementNames, offset);
+                if (element == null) {
+                    throw e;
+                }
+
+                final String uri = datasetURI(content, element);
+                log.warn("Skipping invalid dataset {}: {}", uri, e.getMessage());
+                for (int i = element[0]; i < element[1]; i++) {
+                    if (text[i] != '\n' && text[i] != '\r') {
+                        text[i] = ' ';
+                    }
+                }
+                if (skippedDatasets != null) {
+                    skippedDatasets.add(uri);
+                }
+                skipped++;
+                current = new String(text).getBytes(StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    /**
+     * @return the qualified names of the <code>dcat:dataset</code> element with every prefix that is bound to the DCAT
+     * namespace in the document
+     */
+    static List<String> datasetElementNames(String document) {
+        final List<String> result = new ArrayList<>();
+        final Matcher matcher = DCAT_NAMESPACE.matcher(document);
+        while (matcher.find()) {
+            final String name = matcher.group(1) == null ? "dataset" : matcher.group(1) + ":dataset";
+            if (!result.contains(name)) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param line   line number starting at 1
+     * @param column column number starting at 1, the position after the offending character
+     * @return index of the character in the document
+     */
+    static int offset(String document, long line, long column) {
+        int index = 0;
+        for (long i = 1; i < line; i++) {
+            index = document.indexOf('\n', index) + 1;
+            if (index == 0) {
+                return -1;
+            }
+        }
+        return (int) Math.min(document.length(), index + Math.max(0, column - 1));
+    }
+
+    /**
+     * @return start and end (exclusive) of the <code>dcat:dataset</code> element that contains the specified position
+     * or <code>null</code> if the position is not part of a dataset
+     */
+    static int[] datasetElement(String document, List<String> elementNames, int offset) {
+        for (String name : elementNames) {
+            final String startTag = "<" + name;
+            final String endTag = "</" + name;
+            int start = document.lastIndexOf(startTag, offset);
+            while (start >= 0 && !isStartTag(document, start + startTag.length())) {
+                start = document.lastIndexOf(startTag, start - 1);
+            }
+            if (start < 0) {
+                continue;
+            }
+            // the column of an error points behind the offending character
+            final int endTagStart = document.indexOf(endTag, start);
+            final int end = endTagStart < 0 ? -1 : document.indexOf('>', endTagStart);
+            if (end >= 0 && end + 1 >= offset) {
+                return new int[]{start, end + 1};
+            }
+        }
+        return null;
+    }
+
+    /**
+     * <code>&lt;dcat:dataset rdf:resource="..."/&gt;</code> is only a reference, and <code>&lt;dcat:datasetX</code> is
+     * another element.
+     */
+    private static boolean isStartTag(String document, int afterName) {
+        if (afterName >= document.length()) {
+            return false;
+        }
+        final char next = document.charAt(afterName);
+        if (next != '>' && !Character.isWhitespace(next)) {
+            return false;
+        }
+        final int end = document.indexOf('>', afterName);
+        return end > 0 && document.charAt(end - 1) != '/';
+    }
+
+    /**
+     * Some errors, e.g. invalid IRIs, are reported without a position. Their message quotes the beginning of the
+     * offending IRI like <code>&lt;http://example.org/a[space]...&gt;</code>, which is searched in the document.
+     *
+     * @return index of the first occurrence of the quoted text or -1
+     */
+    static int locate(String document, String message) {
+        String quoted = StringUtils.substringBetween(message, "<", ">");
+        if (quoted == null) {
+            return -1;
+        }
+        quoted = StringUtils.substringBefore(quoted, "...").replace("[space]", " ").replace("[tab]", "\t");
+        quoted = StringUtils.substringBefore(quoted, "[");
+        if (quoted.length() < 8) {
+            return -1;
+        }
+        return document.indexOf(quoted);
+    }
+
+    private static String datasetURI(String document, int[] element) {
+        final Matcher matcher = ABOUT.matcher(document).region(element[0], element[1]);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        return "line " + (StringUtils.countMatches(document.substring(0, element[0]), '\n') + 1);
+    }
+
+    /**
+     * Verhält sich wie {@link ErrorHandlerFactory#errorHandlerStrict}, merkt sich aber die Position des Fehlers.
+     */
+    private static class LocatingErrorHandler implements ErrorHandler {
+        private final ErrorHandler strict = ErrorHandlerFactory.errorHandlerStrict;
+        long line = -1;
+        long col = -1;
+
+        @Override
+        public void warning(String message, long line, long col) {
+            this.line = line;
+            this.col = col;
+            strict.warning(message, line, col);
+        }
+
+        @Override
+        public void error(String message, long line, long col) {
+            this.line = line;
+            this.col = col;
+            strict.error(message, line, col);
+        }
+
+        @Override
+        public void fatal(String message, long line, long col) {
+            this.line = line;
+            this.col = col;
+            strict.fatal(message, line, col);
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Legt die Einträge des Caches in einem Verzeichnis ab, das sich mehrere Instanzen des Proxys teilen, z.B. auf einem
+ * gemeinsamen Dateisystem. Jede Seite steht in einer Datei <code>&lt;hash&gt;.page</code>. Sie wird unter einem
+ * eindeutigen temporären Namen geschrieben und dann umbenannt, so dass Leser ohne Sperren immer eine vollständige Datei
+ * sehen. Wer eine Seite lädt, legt vorher eine Datei <code>&lt;hash&gt;.lock</code> an; die anderen Instanzen warten
+ * auf das Ergebnis. Eine Sperre, die älter als <code>lockTimeout</code> ist, gilt als verwaist und wird übernommen.
+ * <p>
+ * Schlüssel, Erstellungszeit und Filterregeln stehen am Anfang der Datei, so dass Seiten anderer Regeln entfernt werden
+ * können, ohne sie vollständig zu lesen. Die Zahl der Seiten wird nur alle <code>countInterval</code> Millisekunden
+ * durch Auflisten des Verzeichnisses ermittelt und dazwischen mitgezählt.
+ */
+public class SharedFileCacheStore implements CacheStore {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedFileCacheStore.class);
+
+    private static final int MAGIC = 0x44434332;
+    private static final String PAGE = ".page";
+    private static final String LOCK = ".lock";
+    private static final String TMP = ".tmp";
+
+    private final Path directory;
+    private final long lockTimeout;
+    private final String instance = UUID.randomUUID().toString();
+
+    /**
+     * Entries already read by this instance, by file name. A file is read again when it has been replaced.
+     */
+    private final Map<String, Cached> cached = new ConcurrentHashMap<>();
+    private final Map<String, String> locks = new ConcurrentHashMap<>();
+
+    /**
+     * Time in milliseconds after which the number of pages is determined again from the directory, because other
+     * instances add and remove pages, too.
+     */
+    long countInterval = 10000;
+    private final AtomicInteger count = new AtomicInteger();
+    private volatile long countedAt;
+
+    /**
+     * @param lockTimeout time in milliseconds after which the lock of another instance is taken over
+     */
+    public SharedFileCacheStore(Path directory, long lockTimeout) throws IOException {
+        this.directory = directory;
+        this.lockTimeout = lockTimeout;
+        Files.createDirectories(directory);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public CatalogCache.Entry get(String key) throws IOException {
+        final String name = TrafficArchive.urlHash(key) + PAGE;
+        final Path file = directory.resolve(name);
+        final BasicFileAttributes attributes;
+        final Record record;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            final Cached previous = cached.get(name);
+            if (previous != null && previous.matches(attributes)) {
+                record = previous.record;
+            } else {
+                record = read(file);
+                cached.put(name, new Cached(record, attributes));
+            }
+        } catch (NoSuchFileException e) {
+            cached.remove(name);
+            return null;
+        }
+        // different keys with the same hash replace each other
+        return record != null && key.equals(record.key) ? record.entry : null;
+    }
+
+    @Override
+    public void put(String key, CatalogCache.Entry entry) throws IOException {
+        final String hash = TrafficArchive.urlHash(key);
+        final Path tmp = directory.resolve(hash + "-" + UUID.randomUUID() + TMP);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                write(out, key, entry);
+            }
+            Files.setLastModifiedTime(tmp, FileTime.fromMillis(entry.getCreated()));
+            final Path file = directory.resolve(hash + PAGE);
+            final boolean added = !Files.exists(file);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            if (added) {
+                count.incrementAndGet();
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void write(DataOutputStream out, String key, CatalogCache.Entry entry) throws IOException {
+        final CatalogCache.Content content = entry.getContent();
+        out.writeInt(MAGIC);
+        out.writeUTF(key);
+        out.writeLong(entry.getCreated());
+        out.writeUTF(content.getRules() == null ? "" : content.getRules());
+        out.writeInt(content.getHeaders().size());
+        for (Map.Entry<String, String> header : content.getHeaders().entrySet()) {
+            out.writeUTF(header.getKey());
+            out.writeUTF(header.getValue());
+        }
+        out.writeInt(content.getBody().length);
+        out.write(content.getBody());
+    }
+
+    /**
+     * @return the content of the file or <code>null</code> if it is not a valid cache entry
+     */
+    private static Record read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                log.warn("Ignoring {}, it is not a cached page", file);
+                return null;
+            }
+            final String key = in.readUTF();
+            final long created = in.readLong();
+            final String rules = in.readUTF();
+            final int headerCount = in.readInt();
+            final Map<String, String> headers = new LinkedHashMap<>();
+            for (int i = 0; i < headerCount; i++) {
+                headers.put(in.readUTF(), in.readUTF());
+            }
+            final byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            return new Record(key, new CatalogCache.Entry(
+                    new CatalogCache.Content(body, headers, rules.isEmpty() ? null : rules), created));
+        } catch (EOFException e) {
+            log.warn("Ignoring truncated cache file {}", file);
+            return null;
+        }
+    }
+
+    /**
+     * Reads only the beginning of the file up to the filter rules.
+     *
+     * @return the fingerprint of the filter rules, an empty string if the page has been stored without, or
+     * <code>null</code> if the file is not a valid cache entry
+     */
+    private static String readRules(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 512))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            in.readUTF();
+            in.readLong();
+            return in.readUTF();
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public int removeOtherRules(String rules) throws IOException {
+        int removed = 0;
+        final List<Path> files = list(PAGE);
+        for (Path file : files) {
+            final String name = file.getFileName().toString();
+            try {
+                final Cached previous = cached.get(name);
+                final String fileRules;
+                if (previous != null && previous.matches(Files.readAttributes(file, BasicFileAttributes.class))) {
+                    fileRules = previous.record == null ? null : previous.record.entry.getContent().getRules();
+                } else {
+                    fileRules = readRules(file);
+                }
+                if (!rules.equals(fileRules)) {
+                    Files.deleteIfExists(file);
+                    cached.remove(name);
+                    removed++;
+                }
+            } catch (NoSuchFileException e) {
+                // removed by another instance
+            }
+        }
+        setCount(files.size() - removed);
+        return removed;
+    }
+
+    @Override
+    public void evictOldest() throws IOException {
+        Path oldestFile = null;
+        long oldest = Long.MAX_VALUE;
+        final List<Path> files = list(PAGE);
+        for (Path file : files) {
+            try {
+                final long modified = Files.getLastModifiedTime(file).toMillis();
+                if (modified < oldest) {
+                    oldest = modified;
+                    oldestFile = file;
+                }
+            } catch (NoSuchFileException e) {
+                // removed by another instance
+            }
+        }
+        int size = files.size();
+        if (oldestFile != null) {
+            Files.deleteIfExists(oldestFile);
+            cached.remove(oldestFile.getFileName().toString());
+            size--;
+        }
+        setCount(size);
+    }
+
+    /**
+     * @return the number of pages, counted since the directory has been listed last
+     */
+    @Override
+    public int size() throws IOException {
+        if (System.currentTimeMillis() - countedAt < countInterval) {
+            return count.get();
+        }
+        final Set<String> names = new HashSet<>();
+        for (Path file : list(PAGE)) {
+            names.add(file.getFileName().toString());
+        }
+        // forget pages that other instances have removed
+        cached.keySet().retainAll(names);
+        setCount(names.size());
+        return names.size();
+    }
+
+    private void setCount(int size) {
+        count.set(size);
+        countedAt = System.currentTimeMillis();
+    }
+
+    private List<Path> list(String suffix) throws IOException {
+        final List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + suffix)) {
+            for (Path file : stream) {
+                result.add(file);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates the lock file of the page. If two instances take over an orphaned lock at the same time, both may load
+     * the page, which costs time but does no harm.
+     */
+    @Override
+    public boolean tryLock(String key) throws IOException {
+        final Path lock = directory.resolve(TrafficArchive.urlHash(key) + LOCK);
+        final String token = instance + " " + UUID.randomUUID();
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                Files.write(lock, token.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE);
+                locks.put(key, token);
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                if (!isOrphaned(lock)) {
+                    return false;
+                }
+                log.warn("Taking over orphaned lock {}", lock);
+                Files.deleteIfExists(lock);
+            }
+        }
+        return false;
+    }
+
+    private boolean isOrphaned(Path lock) throws IOException {
+        try {
+            return Files.getLastModifiedTime(lock).toMillis() < System.currentTimeMillis() - lockTimeout;
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Removes the lock file unless another instance has taken it over in the meantime.
+     */
+    @Override
+    public void unlock(String key) throws IOException {
+        final String token = locks.remove(key);
+        if (token == null) {
+            return;
+        }
+        final Path lock = directory.resolve(TrafficArchive.urlHash(key) + LOCK);
+        try {
+            if (token.equals(new String(Files.readAllBytes(lock), StandardCharsets.UTF_8))) {
+                Files.deleteIfExists(lock);
+            }
+        } catch (NoSuchFileException e) {
+            // taken over and released by another instance
+        }
+    }
+
+    private static class Record {
+        final String key;
+        final CatalogCache.Entry entry;
+
+        Record(String key, CatalogCache.Entry entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+
+    private static class Cached {
+        final Record record;
+        final FileTime modified;
+        final long size;
+        final Object fileKey;
+
+        Cached(Record record, BasicFileAttributes attributes) {
+            this.record = record;
+            this.modified = attributes.lastModifiedTime();
+            this.size = attributes.size();
+            this.fileKey = attributes.fileKey();
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return modified.equals(attributes.lastModifiedTime()) && size == attributes.size()
+                    && Objects.equals(fileKey, attributes.fileKey());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.sys.JenaSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.Collections;
+
+/**
+ * Initialisiert Jena beim Start und filtert einen mitgelieferten Beispielkatalog mehrmals, damit die ersten Anfragen
+ * der Harvester nicht auf die Initialisierung von Jena und den JIT-Compiler warten müssen. Spring Boot meldet die
+ * Anwendung erst nach Abschluss dieser Phase als bereit.
+ */
+public class StartupWarmup implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupWarmup.class);
+    private static final String SAMPLE_CATALOG = "/warmup/catalog.xml";
+
+    private final ApplicationContext applicationContext;
+
+    @Value("${warmupIterations:50}")
+    int iterations = 50;
+
+    /**
+     * Terminates the application after the warm-up. Used for the training run that records the class list for the
+     * class data sharing archive.
+     */
+    @Value("${warmupExit:false}")
+    boolean exitAfterWarmup;
+
+    public StartupWarmup(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        warmup();
+
+        if (exitAfterWarmup) {
+            System.exit(SpringApplication.exit(applicationContext));
+        }
+    }
+
+    void warmup() {
+        final long start = System.currentTimeMillis();
+        JenaSystem.init();
+
+        try {
+            final byte[] sample;
+            try (InputStream is = getClass().getResourceAsStream(SAMPLE_CATALOG)) {
+                sample = StreamUtils.copyToByteArray(is);
+            }
+
+            final CatalogFilter filter = createFilter();
+            try {
+                for (int i = 0; i < iterations; i++) {
+                    final Model model = filter.work(new ByteArrayInputStream(sample));
+                    model.write(new StringWriter());
+                }
+            } finally {
+                filter.destroy();
+            }
+        } catch (Exception e) {
+            log.warn("Warm-up failed", e);
+        }
+
+        log.info("Warm-up finished after {} ms", System.currentTimeMillis() - start);
+    }
+
+    /**
+     * @return a separate filter without memoisation, so that every iteration runs the complete pipeline
+     */
+    CatalogFilter createFilter() throws Exception {
+        final CatalogFilter filter = new CatalogFilter();
+        filter.setBaseURL("http://localhost:8080/");
+        filter.setReplaceURL(Collections.emptyList());
+        filter.datasetCacheSize = 0;
+        filter.afterPropertiesSet();
+        return filter;
+    }
+}
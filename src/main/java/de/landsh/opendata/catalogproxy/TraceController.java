@@ -0,0 +1,43 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Liefert die langsamsten Anfragen seit dem Start oder dem letzten Zurücksetzen mit allen Spans als JSON.
+ */
+@Controller
+public class TraceController {
+
+    private final Tracer tracer;
+
+    public TraceController(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @RequestMapping(value = "/debug/traces", method = RequestMethod.GET, produces = "application/json")
+    @ResponseBody
+    public Map<String, Object> traces() {
+        final List<Map<String, Object>> slowest = new ArrayList<>();
+        for (Tracer.Span trace : tracer.getSlowest()) {
+            slowest.add(trace.toMap());
+        }
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("traces", tracer.getTraces());
+        result.put("slowest", slowest);
+        return result;
+    }
+
+    @RequestMapping(value = "/debug/traces", method = RequestMethod.DELETE)
+    @ResponseBody
+    public void clear() {
+        tracer.clear();
+    }
+}
@@ -0,0 +1,223 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Zeichnet für jede Anfrage einen Trace mit verschachtelten Spans auf, z.B. für den Abruf beim Upstream-Katalog, das
+ * Parsen und die einzelnen Schritte des Filters. Die <code>traceSlowest</code> langsamsten Traces werden im Speicher
+ * behalten und unter <code>/debug/traces</code> ausgeliefert. Der Trace-Kontext folgt W3C Trace Context: eine
+ * eingehende <code>traceparent</code> Angabe wird übernommen und an den Upstream-Katalog weitergegeben.
+ * <p>
+ * Spans werden über {@link #span(String)} im aktuellen Thread geöffnet, so dass die beteiligten Klassen keinen Tracer
+ * kennen müssen. Ohne laufenden Trace, z.B. bei der Aktualisierung im Hintergrund, wird nichts aufgezeichnet.
+ */
+public class Tracer {
+
+    static final String TRACEPARENT = "traceparent";
+
+    private static final Pattern TRACEPARENT_PATTERN = Pattern.compile("[0-9a-f]{2}-([0-9a-f]{32})-([0-9a-f]{16})-[0-9a-f]{2}");
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Number of traces that are retained.
+     */
+    @Value("${traceSlowest:20}")
+    int slowest = 20;
+
+    private final PriorityQueue<Span> retained = new PriorityQueue<>(Comparator.comparingLong(Span::getDurationNanos));
+    private long traces;
+
+    /**
+     * Starts a trace in the current thread. It is finished by closing the returned span.
+     *
+     * @param traceparent the <code>traceparent</code> header of the request or <code>null</code>
+     */
+    public Span startTrace(String name, String traceparent) {
+        String traceId = null;
+        String parentId = null;
+        if (traceparent != null) {
+            final Matcher matcher = TRACEPARENT_PATTERN.matcher(traceparent.trim());
+            if (matcher.matches() && !matcher.group(1).matches("0+")) {
+                traceId = matcher.group(1);
+                parentId = matcher.group(2);
+            }
+        }
+        final Span span = new Span(this, name, traceId == null ? randomId(16) : traceId, parentId, null);
+        CURRENT.set(span);
+        return span;
+    }
+
+    /**
+     * Opens a span below the current span of this thread.
+     *
+     * @return the new span or a span that records nothing if no trace is running
+     */
+    public static Span span(String name) {
+        final Span parent = CURRENT.get();
+        if (parent == null) {
+            return Span.NOOP;
+        }
+        final Span span = new Span(null, name, parent.traceId, parent.spanId, parent);
+        parent.children.add(span);
+        CURRENT.set(span);
+        return span;
+    }
+
+    /**
+     * Runs the action in a span below the current span of this thread. For steps that add no attributes to their span.
+     */
+    public static <E extends Exception> void span(String name, Step<E> step) throws E {
+        final Span span = span(name);
+        try {
+            step.run();
+        } finally {
+            span.close();
+        }
+    }
+
+    /**
+     * @return the <code>traceparent</code> header for a request made within the current span or <code>null</code>
+     */
+    public static String traceparent() {
+        final Span span = CURRENT.get();
+        return span == null ? null : "00-" + span.traceId + "-" + span.spanId + "-01";
+    }
+
+    private static String randomId(int bytes) {
+        final StringBuilder sb = new StringBuilder(bytes * 2);
+        for (int i = 0; i < bytes; i++) {
+            sb.append(String.format("%02x", ThreadLocalRandom.current().nextInt(256)));
+        }
+        return sb.toString();
+    }
+
+    private synchronized void record(Span trace) {
+        traces++;
+        if (slowest <= 0) {
+            return;
+        }
+        if (retained.size() < slowest) {
+            retained.add(trace);
+        } else if (trace.durationNanos > retained.peek().durationNanos) {
+            retained.poll();
+            retained.add(trace);
+        }
+    }
+
+    /**
+     * @return the retained traces, the slowest first
+     */
+    public synchronized List<Span> getSlowest() {
+        final List<Span> result = new ArrayList<>(retained);
+        result.sort(Comparator.comparingLong(Span::getDurationNanos).reversed());
+        return result;
+    }
+
+    public synchronized long getTraces() {
+        return traces;
+    }
+
+    /**
+     * Forgets the retained traces, e.g. after a deployment.
+     */
+    public synchronized void clear() {
+        retained.clear();
+    }
+
+    /**
+     * Ein Arbeitsschritt, der in einem eigenen Span läuft, siehe {@link #span(String, Step)}.
+     */
+    public interface Step<E extends Exception> {
+        void run() throws E;
+    }
+
+    /**
+     * Ein Abschnitt eines Traces. Er beginnt beim Erzeugen und endet mit {@link #close()}.
+     */
+    public static class Span implements AutoCloseable {
+
+        static final Span NOOP = new Span(null, null, null, null, null);
+
+        private final Tracer tracer;
+        private final String name;
+        private final String traceId;
+        private final String spanId;
+        private final String parentId;
+        private final Span parent;
+        private final long start = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private final Map<String, Object> attributes = new LinkedHashMap<>();
+        private final List<Span> children = new ArrayList<>();
+        private long durationNanos = -1;
+
+        private Span(Tracer tracer, String name, String traceId, String parentId, Span parent) {
+            this.tracer = tracer;
+            this.name = name;
+            this.traceId = traceId;
+            this.spanId = name == null ? null : randomId(8);
+            this.parentId = parentId;
+            this.parent = parent;
+        }
+
+        public Span attribute(String key, Object value) {
+            if (this != NOOP) {
+                attributes.put(key, value);
+            }
+            return this;
+        }
+
+        public String getTraceId() {
+            return traceId;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        @Override
+        public void close() {
+            if (this == NOOP || durationNanos >= 0) {
+                return;
+            }
+            durationNanos = System.nanoTime() - startNanos;
+            if (parent != null) {
+                CURRENT.set(parent);
+            } else {
+                CURRENT.remove();
+                tracer.record(this);
+            }
+        }
+
+        /**
+         * @return the span and its children in a form that can be serialized as JSON
+         */
+        public Map<String, Object> toMap() {
+            final Map<String, Object> result = new LinkedHashMap<>();
+            result.put("name", name);
+            if (parent == null) {
+                result.put("traceId", traceId);
+                result.put("parentId", parentId);
+            }
+            result.put("spanId", spanId);
+            result.put("start", start);
+            result.put("durationMillis", TimeUnit.NANOSECONDS.toMicros(durationNanos) / 1000.0);
+            if (!attributes.isEmpty()) {
+                result.put("attributes", attributes);
+            }
+            if (!children.isEmpty()) {
+                final List<Map<String, Object>> list = new ArrayList<>();
+                for (Span child : children) {
+                    list.add(child.toMap());
+                }
+                result.put("children", list);
+            }
+            return result;
+        }
+    }
+}
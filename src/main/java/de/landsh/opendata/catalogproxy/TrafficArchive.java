@@ -0,0 +1,185 @@
+package de.landsh.opendata.catalogproxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ein Verzeichnis mit aufgezeichneten Antworten des Upstream-Katalogs. Jede Aufzeichnung besteht aus einer Datei
+ * <code>&lt;name&gt;.properties</code> mit URL, HTTP-Status, Headern und Antwortzeit sowie einer Datei
+ * <code>&lt;name&gt;.body</code> mit dem unveränderten Inhalt der Antwort. Der Name beginnt mit einem Hashwert der URL,
+ * so dass die neueste Aufzeichnung einer URL ohne Index gefunden werden kann.
+ */
+public class TrafficArchive {
+
+    private static final String PROPERTIES = ".properties";
+    private static final String BODY = ".body";
+    private static final String HEADER_PREFIX = "header.";
+
+    private static final Comparator<Recording> ORDER = Comparator.comparingLong(Recording::getTimestamp)
+            .thenComparingLong(Recording::getSequence);
+
+    private final Path directory;
+    /**
+     * Orders recordings of the same millisecond. It is never wrapped, so that this order holds for any number of
+     * recordings.
+     */
+    final AtomicLong sequence = new AtomicLong();
+
+    public TrafficArchive(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Saves a response of the upstream catalog.
+     */
+    public Recording record(String url, int status, Map<String, List<String>> headers, long elapsedMillis, byte[] body)
+            throws IOException {
+        Files.createDirectories(directory);
+        final long timestamp = System.currentTimeMillis();
+        final String name = String.format("%s-%013d-%010d", urlHash(url), timestamp, sequence.getAndIncrement());
+
+        final Properties properties = new Properties();
+        properties.setProperty("url", url);
+        properties.setProperty("status", String.valueOf(status));
+        properties.setProperty("elapsedMillis", String.valueOf(elapsedMillis));
+        properties.setProperty("timestamp", String.valueOf(timestamp));
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey() != null) {
+                properties.setProperty(HEADER_PREFIX + header.getKey(), String.join(", ", header.getValue()));
+            }
+        }
+
+        // The body is written first, so that readers never see a recording without body.
+        write(directory.resolve(name + BODY), body);
+        final Path propertiesFile = directory.resolve(name + PROPERTIES + ".tmp");
+        try (OutputStream out = Files.newOutputStream(propertiesFile)) {
+            properties.store(out, null);
+        }
+        Files.move(propertiesFile, directory.resolve(name + PROPERTIES), StandardCopyOption.ATOMIC_MOVE);
+
+        return new Recording(name, properties);
+    }
+
+    private static void write(Path file, byte[] data) throws IOException {
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, data);
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the newest recording of the specified URL or <code>null</code>
+     */
+    public Recording find(String url) throws IOException {
+        Recording result = null;
+        for (Recording recording : list(urlHash(url) + "-*" + PROPERTIES)) {
+            if (url.equals(recording.getUrl()) && (result == null || ORDER.compare(recording, result) > 0)) {
+                result = recording;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return all recordings ordered by their time of recording
+     */
+    public List<Recording> list() throws IOException {
+        final List<Recording> result = list("*" + PROPERTIES);
+        result.sort(ORDER);
+        return result;
+    }
+
+    private List<Recording> list(String glob) throws IOException {
+        final List<Recording> result = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return result;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (Path file : stream) {
+                final String fileName = file.getFileName().toString();
+                final Properties properties = new Properties();
+                try (InputStream in = Files.newInputStream(file)) {
+                    properties.load(in);
+                }
+                result.add(new Recording(fileName.substring(0, fileName.length() - PROPERTIES.length()), properties));
+            }
+        }
+        return result;
+    }
+
+    static String urlHash(String url) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                sb.append(String.format("%02x", hash[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public class Recording {
+        private final String name;
+        private final Properties properties;
+
+        Recording(String name, Properties properties) {
+            this.name = name;
+            this.properties = properties;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getUrl() {
+            return properties.getProperty("url");
+        }
+
+        public int getStatus() {
+            return Integer.parseInt(properties.getProperty("status"));
+        }
+
+        public long getElapsedMillis() {
+            return Long.parseLong(properties.getProperty("elapsedMillis"));
+        }
+
+        public long getTimestamp() {
+            return Long.parseLong(properties.getProperty("timestamp"));
+        }
+
+        /**
+         * @return the number of the recording within the archive instance, the last part of its name
+         */
+        long getSequence() {
+            return Long.parseLong(name.substring(name.lastIndexOf('-') + 1));
+        }
+
+        public String getHeader(String name) {
+            for (String key : properties.stringPropertyNames()) {
+                if (key.startsWith(HEADER_PREFIX) && key.substring(HEADER_PREFIX.length()).equalsIgnoreCase(name)) {
+                    return properties.getProperty(key);
+                }
+            }
+            return null;
+        }
+
+        public byte[] getBody() throws IOException {
+            return Files.readAllBytes(directory.resolve(name + BODY));
+        }
+    }
+}
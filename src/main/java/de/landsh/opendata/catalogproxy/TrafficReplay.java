@@ -0,0 +1,228 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Spielt die Aufzeichnungen eines {@link TrafficArchive} ohne Netzwerkzugriff durch die vollständige Verarbeitung
+ * (FilterInvalidRDF, CatalogFilter, Serialisierung) und misst Durchsatz und Antwortzeiten. Zu jeder Seite wird ein
+ * Hashwert über die gefilterten Aussagen ausgegeben, der unabhängig von Blank-Node-Bezeichnern und Reihenfolge ist,
+ * so dass sich die Ausgaben zweier Programmversionen vergleichen lassen.
+ * <p>
+ * Aufruf:
+ * <code>java -cp dcat-catalog-proxy.jar -Dloader.main=de.landsh.opendata.catalogproxy.TrafficReplay
+ * org.springframework.boot.loader.PropertiesLauncher &lt;directory&gt; [--rounds=10] [--baseURL=...]
+ * [--replaceURL=...] [--unwantedPublishers=...] [--datasetCacheSize=...] [--filterParallelism=...]</code>
+ */
+public class TrafficReplay {
+
+    private static final Logger log = LoggerFactory.getLogger(TrafficReplay.class);
+
+    private final TrafficArchive archive;
+    private final UpstreamCatalog upstreamCatalog;
+
+    public TrafficReplay(TrafficArchive archive, CatalogFilter catalogFilter) {
+        this.archive = archive;
+        this.upstreamCatalog = new UpstreamCatalog(null, catalogFilter, null);
+        upstreamCatalog.replayTraffic = archive.getDirectory().toString();
+        upstreamCatalog.afterPropertiesSet();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: TrafficReplay <directory> [--rounds=N] [--baseURL=...] [--replaceURL=...] "
+                    + "[--unwantedPublishers=...] [--datasetCacheSize=N] [--filterParallelism=N]");
+            System.exit(1);
+        }
+
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            final String arg = args[i];
+            final int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Invalid option " + arg);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+
+        final CatalogFilter catalogFilter = new CatalogFilter();
+        catalogFilter.setBaseURL(options.getOrDefault("baseURL", "http://localhost:8080/"));
+        catalogFilter.setReplaceURL(CatalogRegistry.parseList(options.get("replaceURL")));
+        catalogFilter.setUnwantedPublishers(CatalogRegistry.parseList(options.get("unwantedPublishers")));
+        if (options.containsKey("datasetCacheSize")) {
+            catalogFilter.datasetCacheSize = Integer.parseInt(options.get("datasetCacheSize"));
+        }
+        if (options.containsKey("filterParallelism")) {
+            catalogFilter.filterParallelism = Integer.parseInt(options.get("filterParallelism"));
+        }
+        catalogFilter.afterPropertiesSet();
+
+        final TrafficReplay replay = new TrafficReplay(new TrafficArchive(Paths.get(args[0])), catalogFilter);
+        try {
+            replay.run(Integer.parseInt(options.getOrDefault("rounds", "10"))).print(System.out);
+        } finally {
+            catalogFilter.destroy();
+        }
+    }
+
+    /**
+     * Replays every recorded URL the specified number of times. Failed upstream responses are not replayed, pages that
+     * cannot be processed are counted as failures.
+     */
+    public Report run(int rounds) throws IOException {
+        final Set<String> urls = new LinkedHashSet<>();
+        for (TrafficArchive.Recording recording : archive.list()) {
+            if (recording.getStatus() < 400) {
+                urls.add(recording.getUrl());
+            }
+        }
+
+        final Report report = new Report(rounds);
+        for (int round = 0; round < rounds; round++) {
+            for (String url : urls) {
+                final long pageStart = System.nanoTime();
+                final byte[] output;
+                try {
+                    output = upstreamCatalog.filter(url).getBody();
+                } catch (IOException e) {
+                    log.warn("Replay of {} failed: {}", url, e.toString());
+                    report.failures++;
+                    continue;
+                }
+                final long elapsed = System.nanoTime() - pageStart;
+
+                Page page = report.pages.get(url);
+                if (page == null) {
+                    final TrafficArchive.Recording recording = archive.find(url);
+                    page = new Page(url, recording.getElapsedMillis(), recording.getBody().length, output.length,
+                            digest(output));
+                    report.pages.put(url, page);
+                }
+                page.latencies.add(elapsed);
+                report.totalNanos += elapsed;
+            }
+        }
+        return report;
+    }
+
+    static String digest(byte[] rdfXml) {
+        final Model model = ModelFactory.createDefaultModel();
+        RDFParser.create().source(new ByteArrayInputStream(rdfXml)).lang(RDFLanguages.RDFXML).parse(model);
+        return DatasetPartition.digest(model.listStatements().toList());
+    }
+
+    public static class Report {
+        private final int rounds;
+        private final Map<String, Page> pages = new LinkedHashMap<>();
+        /**
+         * Time spent in the pipeline, without computing the digests.
+         */
+        private long totalNanos;
+        private int failures;
+
+        Report(int rounds) {
+            this.rounds = rounds;
+        }
+
+        public Collection<Page> getPages() {
+            return pages.values();
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return pages per second
+         */
+        public double getThroughput() {
+            long count = 0;
+            for (Page page : pages.values()) {
+                count += page.latencies.size();
+            }
+            return totalNanos == 0 ? 0 : count / (totalNanos / 1e9);
+        }
+
+        /**
+         * @param p percentile between 0 and 100
+         * @return latency in milliseconds over all pages and rounds
+         */
+        public double percentile(double p) {
+            final List<Long> all = new ArrayList<>();
+            for (Page page : pages.values()) {
+                all.addAll(page.latencies);
+            }
+            return Page.percentile(all, p);
+        }
+
+        public void print(PrintStream out) {
+            out.printf("%-32s %10s %10s %10s %10s  %s%n", "digest", "upstream", "p50", "in", "out", "url");
+            long inputBytes = 0;
+            for (Page page : pages.values()) {
+                out.printf("%-32s %8d ms %7.1f ms %10d %10d  %s%n", page.digest, page.upstreamMillis,
+                        page.percentile(50), page.inputBytes, page.outputBytes, page.url);
+                inputBytes += page.inputBytes;
+            }
+            out.printf("%d pages, %d rounds, %d failures, %.1f s, %.2f pages/s, %.2f MB/s%n", pages.size(), rounds,
+                    failures, totalNanos / 1e9, getThroughput(), totalNanos == 0 ? 0 : inputBytes * rounds / (totalNanos / 1e9) / 1e6);
+            out.printf("latency p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                    percentile(50), percentile(90), percentile(99), percentile(100));
+        }
+    }
+
+    public static class Page {
+        private final String url;
+        private final long upstreamMillis;
+        private final long inputBytes;
+        private final long outputBytes;
+        private final String digest;
+        private final List<Long> latencies = new ArrayList<>();
+
+        Page(String url, long upstreamMillis, long inputBytes, long outputBytes, String digest) {
+            this.url = url;
+            this.upstreamMillis = upstreamMillis;
+            this.inputBytes = inputBytes;
+            this.outputBytes = outputBytes;
+            this.digest = digest;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public long getOutputBytes() {
+            return outputBytes;
+        }
+
+        /**
+         * @return latency in milliseconds
+         */
+        public double percentile(double p) {
+            return percentile(latencies, p);
+        }
+
+        static double percentile(List<Long> nanos, double p) {
+            if (nanos.isEmpty()) {
+                return 0;
+            }
+            final List<Long> sorted = new ArrayList<>(nanos);
+            Collections.sort(sorted);
+            final int index = (int) Math.ceil(p / 100 * sorted.size()) - 1;
+            return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index))) / 1e6;
+        }
+    }
+}
@@ -0,0 +1,618 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.RiotException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Ein DCAT-Katalog, für den der Proxy Anfragen entgegennimmt. Jeder Katalog hat eigene Filterregeln, einen eigenen
+ * Cache und eine eigene Begrenzung der gleichzeitigen Verbindungen zum Upstream, so dass ein langsamer Katalog die
+ * anderen nicht beeinträchtigt.
+ */
+public class UpstreamCatalog implements InitializingBean, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(UpstreamCatalog.class);
+    private static final int HEDGE_MIN_SAMPLES = 20;
+    static final String SKIPPED_DATASETS_HEADER = "X-Skipped-Datasets";
+
+    private final String name;
+    private final CatalogFilter catalogFilter;
+    private final CatalogCache catalogCache;
+
+    @Value("${remoteURL:https://opendata.schleswig-holstein.de/}")
+    String remoteURL;
+    @Value("${upstreamConnectTimeout:10000}")
+    int connectTimeout = 10000;
+    @Value("${upstreamReadTimeout:60000}")
+    int readTimeout = 60000;
+    /**
+     * Maximum number of concurrent connections to the upstream catalog. Waiting requests are served in the weighted fair
+     * order of their clients, see {@link FairScheduler}.
+     */
+    @Value("${maxConnections:4}")
+    int maxConnections = 4;
+    /**
+     * Time in milliseconds a request waits for a free upstream connection.
+     */
+    @Value("${connectionWaitTimeout:30000}")
+    long connectionWaitTimeout = 30000;
+
+    /**
+     * Directory in which all upstream responses are recorded, see {@link TrafficArchive}.
+     */
+    @Value("${recordTraffic:}")
+    String recordTraffic;
+    /**
+     * Directory with recorded upstream responses that are served instead of contacting the upstream catalog.
+     */
+    @Value("${replayTraffic:}")
+    String replayTraffic;
+
+    /**
+     * Send a second request if the upstream catalog has not answered within the 95th percentile of the recent response
+     * times.
+     */
+    @Value("${hedgeRequests:false}")
+    boolean hedgeRequests;
+    /**
+     * Minimum time in milliseconds before a second request is sent.
+     */
+    @Value("${hedgeMinDelay:1000}")
+    long hedgeMinDelay = 1000;
+
+    /**
+     * Number of consecutive failed or slow upstream requests after which requests fail immediately.
+     */
+    @Value("${circuitFailureThreshold:5}")
+    int circuitFailureThreshold = 5;
+    /**
+     * Upstream requests that take longer than this number of milliseconds count as failures.
+     */
+    @Value("${circuitSlowCallMillis:30000}")
+    long circuitSlowCallMillis = 30000;
+    /**
+     * Time in milliseconds after which a trial request is sent to an unavailable upstream catalog.
+     */
+    @Value("${circuitOpenMillis:30000}")
+    long circuitOpenMillis = 30000;
+
+    private CircuitBreaker circuitBreaker;
+    private HedgeBudget hedgeBudget = new HedgeBudget();
+    private MemoryBudget memoryBudget = new MemoryBudget();
+    private final Map<String, LatencyTracker> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong skippedDatasets = new AtomicLong();
+    private final DatasetIndex datasetIndex = new DatasetIndex();
+    private ExecutorService hedgeExecutor;
+
+    FairScheduler connections;
+    private TrafficArchive recorder;
+    private TrafficArchive replay;
+
+    /**
+     * @param name path prefix under which the catalog is served or <code>null</code> for the default catalog
+     */
+    public UpstreamCatalog(String name, CatalogFilter catalogFilter, CatalogCache catalogCache) {
+        this.name = name;
+        this.catalogFilter = catalogFilter;
+        this.catalogCache = catalogCache;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CatalogFilter getCatalogFilter() {
+        return catalogFilter;
+    }
+
+    public CatalogCache getCatalogCache() {
+        return catalogCache;
+    }
+
+    /**
+     * @return the datasets of all pages that have been filtered so far
+     */
+    public DatasetIndex getDatasetIndex() {
+        return datasetIndex;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public HedgeBudget getHedgeBudget() {
+        return hedgeBudget;
+    }
+
+    /**
+     * All catalogs share one budget, so that the additional load on the upstream servers stays bounded.
+     */
+    public void setHedgeBudget(HedgeBudget hedgeBudget) {
+        this.hedgeBudget = hedgeBudget;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * All catalogs share one budget, because they share the heap.
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Liefert die gefilterte Seite des Katalogs, wenn möglich aus dem Cache. Seiten, die mit anderen Filterregeln
+     * erzeugt wurden, werden nicht mehr ausgeliefert.
+     */
+    public CatalogCache.Result page(int page, String q, String fq, String modifiedSince) throws IOException {
+        final String url = buildURL(page, q, fq, modifiedSince);
+        catalogCache.invalidateOtherRules(catalogFilter.getRules().getFingerprint());
+        return catalogCache.get(url, () -> filter(url));
+    }
+
+    String buildURL(int page, String q, String fq, String modifiedSince) throws IOException {
+        final StringBuilder url = new StringBuilder(remoteURL);
+        url.append("catalog.xml?page=");
+        url.append(page);
+        if (StringUtils.isNotBlank(modifiedSince)) {
+            url.append("&modified_since=");
+            url.append(URLEncoder.encode(modifiedSince, "utf-8"));
+        }
+        if (StringUtils.isNotBlank(q)) {
+            url.append("&q=");
+            url.append(URLEncoder.encode(q, "utf-8"));
+        }
+        if (StringUtils.isNotBlank(fq)) {
+            url.append("&fq=");
+            url.append(URLEncoder.encode(fq, "utf-8"));
+        }
+        return url.toString();
+    }
+
+    /**
+     * Ruft die angegebene Seite des Upstream-Katalogs ab und liefert das gefilterte Ergebnis als RDF/XML. Wurden
+     * fehlerhafte Datensätze übersprungen, enthält das Ergebnis den Header <code>X-Skipped-Datasets</code>. Der Speicher
+     * für das Jena Model wird im {@link MemoryBudget} reserviert, bis das Ergebnis serialisiert ist.
+     */
+    CatalogCache.Content filter(String url) throws IOException {
+        // read before filtering, so that a page is never labelled with newer rules than it was filtered with
+        final FilterRules rules = catalogFilter.getRules();
+        final List<String> skipped = new ArrayList<>();
+        final byte[] body;
+        try (Tracer.Span span = Tracer.span("upstream.filter");
+             MemoryBudget.Reservation reservation = memoryBudget.open()) {
+            span.attribute("url", url).attribute("rulesVersion", rules.getVersion());
+            final Model model;
+            if (replay != null) {
+                final byte[] page;
+                try (Tracer.Span replaySpan = Tracer.span("upstream.replay")) {
+                    page = replayedBody(url);
+                    replaySpan.attribute("bytes", page.length);
+                }
+                reservation.reservePage(page.length, url);
+                model = work(url, page, skipped);
+            } else {
+                model = fetch(url, reservation, skipped);
+            }
+
+            try (Tracer.Span serializeSpan = Tracer.span("serialize")) {
+                final StringWriter writer = new StringWriter();
+                model.write(writer);
+                body = writer.toString().getBytes(StandardCharsets.UTF_8);
+                serializeSpan.attribute("bytes", body.length);
+            }
+            span.attribute("skippedDatasets", skipped.size());
+        }
+
+        if (skipped.isEmpty()) {
+            return new CatalogCache.Content(body, Collections.emptyMap(), rules.getFingerprint());
+        }
+        skippedDatasets.addAndGet(skipped.size());
+        return new CatalogCache.Content(body, Collections.singletonMap(SKIPPED_DATASETS_HEADER, String.valueOf(skipped.size())),
+                rules.getFingerprint());
+    }
+
+    /**
+     * Ruft die Seite vom Upstream-Katalog ab und filtert sie. Der Speicher für die Seite wird reserviert, sobald ihre
+     * Größe bekannt ist.
+     */
+    private Model fetch(String url, MemoryBudget.Reservation reservation, List<String> skipped) throws IOException {
+        circuitBreaker.acquire();
+        try {
+            Tracer.span("upstream.connection", () -> acquireConnection(url));
+        } catch (IOException e) {
+            // waiting for a connection is caused by the load on the proxy, not by the upstream catalog
+            circuitBreaker.onCancel();
+            throw e;
+        }
+        // The upstream catalog is timed until its response has arrived. The time spent filtering it belongs to the
+        // proxy and must not count as a slow call.
+        final long start = System.nanoTime();
+        long elapsedNanos = -1;
+        boolean available = false;
+        try {
+            final Model model;
+            if (hedgeRequests || recorder != null) {
+                final Download download;
+                try (Tracer.Span span = Tracer.span("upstream.download")) {
+                    download = hedgeRequests ? downloadHedged(url) : new Download(url).call();
+                    span.attribute("status", download.status).attribute("bytes", download.body.length);
+                }
+                elapsedNanos = System.nanoTime() - start;
+                if (recorder != null) {
+                    recorder.record(url, download.status, download.headers, download.elapsedMillis, download.body);
+                }
+                if (download.status >= 400) {
+                    throw new IOException("Server returned HTTP response code: " + download.status + " for URL: " + url);
+                }
+                reservation.reservePage(download.body.length, url);
+                model = work(url, download.body, skipped);
+            } else {
+                final URLConnection connection;
+                final long length;
+                // the body is read while it is parsed
+                try (Tracer.Span span = Tracer.span("upstream.connect")) {
+                    connection = openConnection(url, Tracer.traceparent());
+                    length = connection.getContentLengthLong();
+                    span.attribute("contentLength", length);
+                }
+                elapsedNanos = System.nanoTime() - start;
+                try {
+                    reservation.reservePage(length >= 0 ? length : MemoryBudget.INITIAL_PAGE_BYTES, url);
+                } catch (IOException e) {
+                    if (connection instanceof HttpURLConnection) {
+                        ((HttpURLConnection) connection).disconnect();
+                    }
+                    throw e;
+                }
+                model = workOrRefetch(url, connection, reservation, skipped);
+            }
+            available = true;
+            return model;
+        } catch (InvalidCatalogException | MemoryBudget.RejectedException | MemoryBudget.PageTooLargeException e) {
+            // the upstream catalog has answered
+            available = true;
+            throw e;
+        } finally {
+            connections.release();
+            if (available) {
+                circuitBreaker.onSuccess((elapsedNanos >= 0 ? elapsedNanos : System.nanoTime() - start) / 1000000);
+            } else {
+                circuitBreaker.onFailure();
+            }
+        }
+    }
+
+    /**
+     * @param traceparent trace context passed to the upstream catalog, may be <code>null</code>
+     */
+    private URLConnection openConnection(String url, String traceparent) throws IOException {
+        final URLConnection connection = new URL(url).openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        if (traceparent != null) {
+            connection.setRequestProperty(Tracer.TRACEPARENT, traceparent);
+        }
+        return connection;
+    }
+
+    /**
+     * Filtert die Seite, während sie gelesen wird. Ist sie ungültig und dürfen fehlerhafte Datensätze übersprungen
+     * werden, wird sie erneut vollständig abgerufen und mit dem {@link RecoveringParser} eingelesen. Nur fehlerhafte
+     * Seiten werden also im Speicher gepuffert.
+     */
+    private Model workOrRefetch(String url, URLConnection connection, MemoryBudget.Reservation reservation,
+                                List<String> skipped) throws IOException {
+        try (InputStream is = reservation.track(connection.getInputStream(), url)) {
+            return work(url, () -> catalogFilter.work(is));
+        } catch (InvalidCatalogException e) {
+            if (catalogFilter.maxSkippedDatasets <= 0) {
+                throw e;
+            }
+            log.info("Fetching {} again to skip invalid datasets: {}", url, e.getCause().getMessage());
+            final Download download;
+            try (Tracer.Span span = Tracer.span("upstream.refetch")) {
+                download = new Download(url).call();
+                span.attribute("status", download.status).attribute("bytes", download.body.length);
+            }
+            if (download.status >= 400) {
+                throw new IOException("Server returned HTTP response code: " + download.status + " for URL: " + url);
+            }
+            reservation.reservePage(download.body.length, url);
+            return work(url, download.body, skipped);
+        }
+    }
+
+    private Model work(String url, byte[] page, List<String> skipped) throws IOException {
+        return work(url, () -> catalogFilter.work(page, skipped));
+    }
+
+    private Model work(String url, Supplier<Model> parser) throws IOException {
+        try {
+            return parser.get();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            // the parser wraps exceptions of the stream, e.g. if the page exceeds the memory budget
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof MemoryBudget.RejectedException || cause instanceof MemoryBudget.PageTooLargeException) {
+                    throw (IOException) cause;
+                }
+            }
+            if (e instanceof RiotException) {
+                throw new InvalidCatalogException("Invalid catalog at " + url, e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Der Upstream-Katalog hat geantwortet, aber kein gültiges RDF/XML geliefert.
+     */
+    static class InvalidCatalogException extends IOException {
+        InvalidCatalogException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Lädt die Seite und sendet eine zweite Anfrage, wenn der Upstream-Katalog nicht innerhalb des 95. Perzentils der
+     * letzten Antwortzeiten dieses Endpunkts geantwortet hat. Die zuerst vollständig gelesene Antwort wird verwendet,
+     * die andere Anfrage wird abgebrochen. Für die zweite Anfrage muss eine freie Verbindung und Guthaben im
+     * {@link HedgeBudget} vorhanden sein.
+     */
+    private Download downloadHedged(String url) throws IOException {
+        hedgeBudget.onRequest();
+        final LatencyTracker tracker = latencyTracker(url);
+        final long delay = tracker.getCount() < HEDGE_MIN_SAMPLES ? -1 : Math.max(hedgeMinDelay, tracker.percentile(95));
+
+        final CompletableFuture<Download> winner = new CompletableFuture<>();
+        final AtomicInteger pending = new AtomicInteger(1);
+        final Download primary = new Download(url);
+        Download hedge = null;
+        Download result = null;
+        start(primary, winner, pending, false);
+
+        try {
+            if (delay >= 0) {
+                try {
+                    result = winner.get(delay, TimeUnit.MILLISECONDS);
+                    return result;
+                } catch (TimeoutException e) {
+                    if (connections.tryAcquire()) {
+                        if (hedgeBudget.tryAcquire()) {
+                            log.debug("No response from {} within {} ms, sending a second request", url, delay);
+                            hedges.incrementAndGet();
+                            hedge = new Download(url);
+                            pending.incrementAndGet();
+                            start(hedge, winner, pending, true);
+                        } else {
+                            connections.release();
+                        }
+                    }
+                }
+            }
+            result = winner.get();
+            if (result == hedge) {
+                hedgeWins.incrementAndGet();
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + url, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            if (primary != result) {
+                primary.cancel();
+            }
+            if (hedge != null && hedge != result) {
+                hedge.cancel();
+            }
+        }
+    }
+
+    private void start(Download download, CompletableFuture<Download> winner, AtomicInteger pending, boolean releaseConnection) {
+        hedgeExecutor.execute(() -> {
+            try {
+                winner.complete(download.call());
+            } catch (IOException e) {
+                if (pending.decrementAndGet() == 0) {
+                    winner.completeExceptionally(e);
+                }
+            } finally {
+                if (releaseConnection) {
+                    connections.release();
+                }
+            }
+        });
+    }
+
+    LatencyTracker latencyTracker(String url) {
+        return latencies.computeIfAbsent(endpoint(url), k -> new LatencyTracker(200));
+    }
+
+    /**
+     * Pages of the same query have similar response times, so the values of the parameters are removed.
+     */
+    static String endpoint(String url) {
+        final int index = url.indexOf('?');
+        if (index < 0) {
+            return url;
+        }
+        final StringBuilder sb = new StringBuilder(url.substring(0, index));
+        char separator = '?';
+        for (String parameter : url.substring(index + 1).split("&")) {
+            final int eq = parameter.indexOf('=');
+            sb.append(separator).append(eq < 0 ? parameter : parameter.substring(0, eq));
+            separator = '&';
+        }
+        return sb.toString();
+    }
+
+    public long getHedges() {
+        return hedges.get();
+    }
+
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * @return number of datasets that have been skipped because of syntax errors
+     */
+    public long getSkippedDatasets() {
+        return skippedDatasets.get();
+    }
+
+    /**
+     * Eine Anfrage an den Upstream-Katalog, deren Antwort vollständig gelesen wird. Sie kann aus einem anderen Thread
+     * abgebrochen werden.
+     */
+    private class Download {
+        private final String url;
+        private volatile HttpURLConnection connection;
+        private volatile boolean cancelled;
+        private volatile long started;
+        /**
+         * Set when the response time has been recorded or the request has failed.
+         */
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        int status = 200;
+        Map<String, List<String>> headers;
+        byte[] body;
+        long elapsedMillis;
+
+        // the download may run in another thread than the trace
+        private final String traceparent = Tracer.traceparent();
+
+        Download(String url) {
+            this.url = url;
+        }
+
+        Download call() throws IOException {
+            final long start = System.nanoTime();
+            started = start;
+            try {
+                final URLConnection urlConnection = openConnection(url, traceparent);
+                if (urlConnection instanceof HttpURLConnection) {
+                    connection = (HttpURLConnection) urlConnection;
+                    if (cancelled) {
+                        throw new IOException("Request to " + url + " cancelled");
+                    }
+                    status = connection.getResponseCode();
+                }
+                memoryBudget.checkPageSize(urlConnection.getContentLengthLong(), url);
+                try (InputStream is = status < 400 ? urlConnection.getInputStream() : connection.getErrorStream()) {
+                    body = is == null ? new byte[0] : StreamUtils.copyToByteArray(memoryBudget.limit(is, url));
+                }
+                headers = urlConnection.getHeaderFields();
+                elapsedMillis = (System.nanoTime() - start) / 1000000;
+                if (status < 400 && finished.compareAndSet(false, true)) {
+                    latencyTracker(url).add(elapsedMillis);
+                }
+                return this;
+            } finally {
+                finished.set(true);
+            }
+        }
+
+        /**
+         * Aborts the request. A request that is still running is recorded with the time it has taken so far, a lower
+         * bound of its response time. Without these samples the slow responses that trigger hedging would never be
+         * recorded, and the hedge delay would drift down towards the response time of the hedges.
+         */
+        void cancel() {
+            cancelled = true;
+            final long start = started;
+            if (start != 0 && finished.compareAndSet(false, true)) {
+                latencyTracker(url).add((System.nanoTime() - start) / 1000000);
+            }
+            final HttpURLConnection c = connection;
+            if (c != null) {
+                c.disconnect();
+            }
+        }
+    }
+
+    private byte[] replayedBody(String url) throws IOException {
+        final TrafficArchive.Recording recording = replay.find(url);
+        if (recording == null) {
+            throw new IOException("No recording of " + url + " in " + replay.getDirectory());
+        }
+        if (recording.getStatus() >= 400) {
+            throw new IOException("Server returned HTTP response code: " + recording.getStatus() + " for URL: " + url);
+        }
+        return recording.getBody();
+    }
+
+    private void acquireConnection(String url) throws IOException {
+        try {
+            if (!connections.acquire(ClientLimiter.current(), connectionWaitTimeout)) {
+                throw new IOException("No free upstream connection for " + url);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for an upstream connection", e);
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        catalogFilter.setDatasetIndex(datasetIndex);
+        connections = new FairScheduler(maxConnections);
+        circuitBreaker = new CircuitBreaker(name == null ? "default" : name, circuitFailureThreshold,
+                circuitSlowCallMillis, circuitOpenMillis);
+        recorder = StringUtils.isBlank(recordTraffic) ? null : new TrafficArchive(Paths.get(recordTraffic));
+        replay = StringUtils.isBlank(replayTraffic) ? null : new TrafficArchive(Paths.get(replayTraffic));
+        if (hedgeRequests && hedgeExecutor == null) {
+            hedgeExecutor = Executors.newCachedThreadPool(runnable -> {
+                final Thread thread = new Thread(runnable, "upstream-" + (name == null ? "default" : name));
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+            hedgeExecutor = null;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CatalogCacheTest {
+
+    private final CatalogCache cache = new CatalogCache();
+    private final MutableClock clock = new MutableClock();
+    private final List<Runnable> backgroundTasks = new ArrayList<>();
+    private final AtomicInteger loads = new AtomicInteger();
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    public void setUp() {
+        cache.timeToLive = 60;
+        cache.staleWhileRevalidate = 60;
+        cache.staleIfError = 600;
+        cache.maxEntries = 2;
+        cache.clock = clock;
+        cache.refreshExecutor = backgroundTasks::add;
+        cache.afterPropertiesSet();
+    }
+
+    private CatalogCache.Loader loader(String content) {
+        return () -> {
+            loads.incrementAndGet();
+            return new CatalogCache.Content(content.getBytes(StandardCharsets.UTF_8));
+        };
+    }
+
+    private CatalogCache.Loader loader(String content, String rules) {
+        return () -> {
+            loads.incrementAndGet();
+            return new CatalogCache.Content(content.getBytes(StandardCharsets.UTF_8), Collections.emptyMap(), rules);
+        };
+    }
+
+    private static CatalogCache.Loader failingLoader() {
+        return () -> {
+            throw new IOException("upstream not available");
+        };
+    }
+
+    private static String body(CatalogCache.Result result) {
+        return new String(result.getBody(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void get_fresh_entry_is_served_from_cache() throws IOException {
+        cache.get("page1", loader("first"));
+        clock.advance(30);
+
+        final CatalogCache.Result result = cache.get("page1", loader("second"));
+
+        assertEquals("first", body(result));
+        assertEquals(30, result.getAge());
+        assertNull(result.getWarning());
+        assertEquals(1, loads.get());
+    }
+
+    /**
+     * Only pages produced under other filter rules are discarded when the rules change.
+     */
+    @Test
+    public void invalidateOtherRules() throws IOException {
+        cache.get("page1", loader("old", "a"));
+        cache.get("page2", loader("new", "b"));
+
+        cache.invalidateOtherRules("b");
+
+        assertEquals(1, cache.size());
+        assertEquals("new", body(cache.get("page2", loader("newer", "b"))));
+        assertEquals("reloaded", body(cache.get("page1", loader("reloaded", "b"))));
+        assertEquals(3, loads.get());
+    }
+
+    /**
+     * A page of other rules that is added after the invalidation, e.g. by a request that started before the rules
+     * changed, is not served.
+     */
+    @Test
+    public void invalidateOtherRules_late_entry() throws IOException {
+        cache.invalidateOtherRules("b");
+        cache.get("page1", loader("old", "a"));
+
+        assertEquals("reloaded", body(cache.get("page1", loader("reloaded", "b"))));
+        assertEquals("reloaded", body(cache.get("page1", loader("again", "b"))));
+        assertEquals(2, loads.get());
+    }
+
+    /**
+     * Instances sharing a directory recognise the same rules by their fingerprint, whatever their own version is.
+     */
+    @Test
+    public void invalidateOtherRules_shared() throws IOException {
+        final List<String> replaceURL = Arrays.asList("http://example.org/", "https://example.org/");
+        final String rules = new FilterRules(1, Collections.emptyList(), replaceURL).getFingerprint();
+        final String sameRules = new FilterRules(7, Collections.emptyList(), replaceURL).getFingerprint();
+        final CatalogCache first = sharedCache();
+        final CatalogCache second = sharedCache();
+
+        first.invalidateOtherRules(rules);
+        first.get("page1", loader("first", rules));
+        second.invalidateOtherRules(sameRules);
+
+        assertEquals("first", body(second.get("page1", loader("second", sameRules))));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void get_expired_entry_is_served_stale_and_refreshed_in_background() throws IOException {
+        cache.get("page1", loader("first"));
+        clock.advance(90);
+
+        final CatalogCache.Result stale = cache.get("page1", loader("second"));
+
+        assertEquals("first", body(stale));
+        assertEquals(CatalogCache.WARNING_STALE, stale.getWarning());
+        assertEquals(1, backgroundTasks.size());
+
+        backgroundTasks.get(0).run();
+        final CatalogCache.Result refreshed = cache.get("page1", loader("third"));
+
+        assertEquals("second", body(refreshed));
+        assertEquals(0, refreshed.getAge());
+        assertNull(refreshed.getWarning());
+    }
+
+    @Test
+    public void get_serves_stale_copy_if_upstream_fails() throws IOException {
+        cache.get("page1", loader("first"));
+        clock.advance(300);
+
+        final CatalogCache.Result result = cache.get("page1", failingLoader());
+
+        assertEquals("first", body(result));
+        assertEquals(300, result.getAge());
+        assertEquals(CatalogCache.WARNING_REVALIDATION_FAILED, result.getWarning());
+    }
+
+    @Test
+    public void get_fails_if_stale_copy_is_too_old() throws IOException {
+        cache.get("page1", loader("first"));
+        clock.advance(700);
+
+        assertThrows(IOException.class, () -> cache.get("page1", failingLoader()));
+    }
+
+    @Test
+    public void get_fails_without_cached_copy() {
+        assertThrows(IOException.class, () -> cache.get("page1", failingLoader()));
+    }
+
+    @Test
+    public void background_refresh_failure_keeps_stale_copy() throws IOException {
+        cache.get("page1", loader("first"));
+        clock.advance(90);
+        cache.get("page1", failingLoader());
+
+        backgroundTasks.get(0).run();
+
+        assertEquals("first", body(cache.get("page1", loader("second"))));
+    }
+
+    @Test
+    public void oldest_entry_is_evicted() throws IOException {
+        cache.get("page1", loader("1"));
+        clock.advance(1);
+        cache.get("page2", loader("2"));
+        clock.advance(1);
+        cache.get("page3", loader("3"));
+
+        assertEquals(2, cache.size());
+        assertEquals("new", body(cache.get("page1", loader("new"))));
+    }
+
+    @Test
+    public void nothing_is_cached_if_all_times_are_zero() throws IOException {
+        cache.timeToLive = 0;
+        cache.staleWhileRevalidate = 0;
+        cache.staleIfError = 0;
+
+        cache.get("page1", loader("first"));
+
+        assertEquals(0, cache.size());
+        assertEquals("second", body(cache.get("page1", loader("second"))));
+    }
+
+    /**
+     * An instance of the proxy that uses the same cache directory.
+     */
+    private CatalogCache sharedCache() {
+        final CatalogCache result = new CatalogCache();
+        result.timeToLive = 60;
+        result.staleWhileRevalidate = 60;
+        result.staleIfError = 600;
+        result.maxEntries = 10;
+        result.clock = clock;
+        result.refreshExecutor = backgroundTasks::add;
+        result.cacheDirectory = directory.toString();
+        result.pollInterval = 10;
+        result.afterPropertiesSet();
+        return result;
+    }
+
+    @Test
+    public void shared_directory() throws IOException {
+        final CatalogCache first = sharedCache();
+        final CatalogCache second = sharedCache();
+        first.get("page1", loader("first"));
+        clock.advance(30);
+
+        final CatalogCache.Result result = second.get("page1", loader("second"));
+
+        assertEquals("first", body(result));
+        assertEquals(30, result.getAge());
+        assertEquals(1, loads.get());
+        assertEquals(1, second.size());
+    }
+
+    /**
+     * While one instance loads a page, the other one waits for its result instead of loading the page again.
+     */
+    @Test
+    public void shared_directory_waits_for_other_instance() throws Exception {
+        final CatalogCache first = sharedCache();
+        final CatalogCache second = sharedCache();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final CompletableFuture<CatalogCache.Result> running = CompletableFuture.supplyAsync(() -> {
+            try {
+                return first.get("page1", () -> {
+                    loading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return loader("first").load();
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        final CompletableFuture<CatalogCache.Result> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return second.get("page1", loader("second"));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+
+        release.countDown();
+
+        assertEquals("first", body(waiting.get(5, TimeUnit.SECONDS)));
+        assertEquals("first", body(running.get(5, TimeUnit.SECONDS)));
+        assertEquals(1, loads.get());
+    }
+
+    /**
+     * The lock of an instance that died while loading a page is taken over after cacheLockTimeout.
+     */
+    @Test
+    public void shared_directory_orphaned_lock() throws IOException {
+        final CatalogCache first = sharedCache();
+        first.getStore().tryLock("page1");
+
+        final CatalogCache second = sharedCache();
+        second.lockTimeout = 0;
+        second.afterPropertiesSet();
+
+        assertEquals("second", body(second.get("page1", loader("second"))));
+        assertEquals("second", body(first.get("page1", loader("third"))));
+    }
+
+    static class MutableClock extends Clock {
+        private long millis = 1_000_000;
+
+        void advance(long seconds) {
+            millis += seconds * 1000;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package de.landsh.opendata.catalogproxy;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Misst die Filterung eines Katalogs, in dem sich zwischen zwei Abrufen nur wenige Datensätze ändern: seriell und
+ * parallel, jeweils mit und ohne Zwischenspeicherung der Filterergebnisse je Datensatz.
+ * <p>
+ * Aufruf: <code>java -cp target/classes:target/test-classes:... de.landsh.opendata.catalogproxy.CatalogFilterBenchmark [datasets] [changeEvery] [rounds]</code>
+ */
+public class CatalogFilterBenchmark {
+
+    public static void main(String[] args) {
+        final int datasets = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final int changeEvery = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        final CatalogFilter serial = new CatalogFilter();
+        serial.datasetCacheSize = 0;
+        serial.filterParallelism = 1;
+        final CatalogFilter uncached = new CatalogFilter();
+        uncached.datasetCacheSize = 0;
+        final CatalogFilter cached = new CatalogFilter();
+
+        for (CatalogFilter filter : new CatalogFilter[]{serial, uncached, cached}) {
+            filter.setBaseURL("http://localhost:8080/");
+            filter.setReplaceURL(java.util.Collections.emptyList());
+            try {
+                filter.afterPropertiesSet();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        try {
+            // warm up
+            run(serial, datasets, changeEvery, rounds);
+            run(uncached, datasets, changeEvery, rounds);
+            run(cached, datasets, changeEvery, rounds);
+
+            final long serialTime = run(serial, datasets, changeEvery, rounds);
+            final long uncachedTime = run(uncached, datasets, changeEvery, rounds);
+            final long cachedTime = run(cached, datasets, changeEvery, rounds);
+
+            System.out.printf("%d datasets, every %d. dataset changed per round, %d rounds%n", datasets, changeEvery, rounds);
+            System.out.printf("serial, without memoisation:       %8.2f ms/page%n", serialTime / 1e6 / rounds);
+            System.out.printf("%2d threads, without memoisation:   %8.2f ms/page%n", uncached.filterParallelism, uncachedTime / 1e6 / rounds);
+            System.out.printf("%2d threads, with memoisation:      %8.2f ms/page%n", cached.filterParallelism, cachedTime / 1e6 / rounds);
+        } finally {
+            // the filters own their thread pools
+            for (CatalogFilter filter : new CatalogFilter[]{serial, uncached, cached}) {
+                filter.destroy();
+            }
+        }
+    }
+
+    private static long run(CatalogFilter filter, int datasets, int changeEvery, int rounds) {
+        final byte[][] pages = new byte[rounds][];
+        for (int i = 0; i < rounds; i++) {
+            pages[i] = CatalogGenerator.generate(0, datasets, i, changeEvery);
+        }
+
+        final long start = System.nanoTime();
+        for (byte[] page : pages) {
+            filter.work(new ByteArrayInputStream(page));
+        }
+        return System.nanoTime() - start;
+    }
+}
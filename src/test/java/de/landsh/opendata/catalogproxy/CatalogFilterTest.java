@@ -2,23 +2,32 @@ package de.landsh.opendata.catalogproxy;
 
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.ResIterator;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.riot.RDFLanguages;
 import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.RiotException;
 import org.apache.jena.riot.system.ErrorHandlerFactory;
 import org.apache.jena.vocabulary.DCAT;
 import org.apache.jena.vocabulary.DCTerms;
 import org.apache.jena.vocabulary.RDF;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.util.StreamUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -31,6 +40,11 @@ public class CatalogFilterTest {
         catalogFilter.setBaseURL("https://example.org/");
     }
 
+    @AfterEach
+    public void tearDown() {
+        catalogFilter.destroy();
+    }
+
 
     private Model parseRdf(InputStream inputStream) {
         Model model = ModelFactory.createDefaultModel();
@@ -62,6 +76,23 @@ public class CatalogFilterTest {
         inputStream.close();
     }
 
+    /**
+     * Every stage of the filter is recorded as a span of the current trace.
+     */
+    @Test
+    public void work_traced() {
+        final Tracer tracer = new Tracer();
+        try (Tracer.Span ignored = tracer.startTrace("test", null)) {
+            catalogFilter.work(getClass().getResourceAsStream("/catalog.xml"));
+        }
+
+        final String trace = tracer.getSlowest().get(0).toMap().toString();
+        for (String stage : Arrays.asList("parse", "filter.partition", "filter.datasets", "filter.merge",
+                "filter.removeUnusedDistributions", "filter.rewriteHydraURLs")) {
+            assertTrue(trace.contains("name=" + stage + ","), stage);
+        }
+    }
+
     @Test
     public void removeUnusedResources_removeAll() {
         final Model model = parseRdf(getClass().getResourceAsStream("/catalog.xml"));
@@ -219,7 +250,7 @@ public class CatalogFilterTest {
      */
     @Test
     public void work_will_remove_non_government_organization() throws IOException {
-        catalogFilter.unwantedPublishers = Collections.singletonList("https://opendata.schleswig-holstein.de/organization/ee4df032-ec5f-4726-b7ad-a2c708fb53ec");
+        catalogFilter.setUnwantedPublishers(Collections.singletonList("https://opendata.schleswig-holstein.de/organization/ee4df032-ec5f-4726-b7ad-a2c708fb53ec"));
 
         final InputStream inputStream = getClass().getResourceAsStream("/two-organizations.xml");
         final Model model = catalogFilter.work(inputStream);
@@ -230,4 +261,224 @@ public class CatalogFilterTest {
         inputStream.close();
     }
 
+    /**
+     * The filter results of unchanged datasets are reused. The output is the same as without memoisation.
+     */
+    @Test
+    public void work_reuses_filter_results_of_unchanged_datasets() throws Exception {
+        catalogFilter.replaceURL = Collections.emptyList();
+        catalogFilter.afterPropertiesSet();
+
+        final Model first = catalogFilter.work(getClass().getResourceAsStream("/with_collection.xml"));
+        assertEquals(8, catalogFilter.filterResultCacheSize());
+        assertEquals(0, catalogFilter.filterResultHits());
+        assertEquals(8, catalogFilter.filterResultMisses());
+
+        final Model second = catalogFilter.work(getClass().getResourceAsStream("/with_collection.xml"));
+        assertEquals(8, catalogFilter.filterResultCacheSize());
+        assertEquals(8, catalogFilter.filterResultHits());
+        assertEquals(8, catalogFilter.filterResultMisses());
+
+        assertTrue(first.isIsomorphicWith(second));
+    }
+
+    /**
+     * Memoised filter results are discarded when the rules change.
+     */
+    @Test
+    public void work_discards_filter_results_when_rules_change() throws Exception {
+        catalogFilter.work(getClass().getResourceAsStream("/two-organizations.xml"));
+
+        catalogFilter.setUnwantedPublishers(Collections.singletonList("https://opendata.schleswig-holstein.de/organization/ee4df032-ec5f-4726-b7ad-a2c708fb53ec"));
+        final Model model = catalogFilter.work(getClass().getResourceAsStream("/two-organizations.xml"));
+
+        Assertions.assertEquals(1, countInstances(model, DCAT.Dataset));
+    }
+
+    @Test
+    public void updateRules() throws Exception {
+        catalogFilter.replaceURL = Collections.emptyList();
+        catalogFilter.afterPropertiesSet();
+        final long version = catalogFilter.getRulesVersion();
+
+        assertFalse(catalogFilter.updateRules(null, null));
+        assertTrue(catalogFilter.updateRules(Collections.singletonList("https://example.org/organization/a"), null));
+        assertFalse(catalogFilter.updateRules(Collections.singletonList("https://example.org/organization/a"), null));
+
+        assertEquals(version + 1, catalogFilter.getRulesVersion());
+        assertEquals(Collections.singleton("https://example.org/organization/a"), catalogFilter.getRules().getUnwantedPublishers());
+
+        assertThrows(IllegalArgumentException.class, () -> catalogFilter.updateRules(null, Collections.singletonList("https://example.org/")));
+        assertEquals(version + 1, catalogFilter.getRulesVersion());
+
+        // null restores the initial configuration
+        assertTrue(catalogFilter.updateRules(null, null));
+        assertTrue(catalogFilter.getRules().getUnwantedPublishers().isEmpty());
+    }
+
+    /**
+     * The first matching prefix is replaced, so reordering the replacements changes the rules.
+     */
+    @Test
+    public void updateRules_order_of_replacements() throws Exception {
+        final List<String> replaceURL = Arrays.asList("http://example.org/", "https://example.org/",
+                "http://example.org/a/", "https://a.example.org/");
+        catalogFilter.replaceURL = replaceURL;
+        catalogFilter.afterPropertiesSet();
+        final long version = catalogFilter.getRulesVersion();
+
+        assertFalse(catalogFilter.updateRules(null, replaceURL));
+        assertTrue(catalogFilter.updateRules(null, Arrays.asList("http://example.org/a/", "https://a.example.org/",
+                "http://example.org/", "https://example.org/")));
+        assertEquals(version + 1, catalogFilter.getRulesVersion());
+    }
+
+    /**
+     * The index follows the filtered pages: excluded datasets are removed.
+     */
+    @Test
+    public void work_updates_dataset_index() {
+        final DatasetIndex index = new DatasetIndex();
+        catalogFilter.setDatasetIndex(index);
+        final String dataset = "https://opendata.schleswig-holstein.de/dataset/15909dac-9544-4e28-88a5-a7c8e3f21263";
+
+        catalogFilter.work(getClass().getResourceAsStream("/two-organizations.xml"));
+
+        assertEquals(2, index.size());
+        final Model model = index.findByIdentifier("940acb9a-e828-43bc-9de0-68dc9a16a76c").toModel();
+        assertTrue(model.contains(model.createResource(dataset), RDF.type, DCAT.Dataset));
+        assertEquals(1, countInstances(model, DCAT.Distribution));
+        assertTrue(model.contains(null, DCTerms.accessRights));
+
+        catalogFilter.setUnwantedPublishers(Collections.singletonList("https://opendata.schleswig-holstein.de/organization/ee4df032-ec5f-4726-b7ad-a2c708fb53ec"));
+        catalogFilter.work(getClass().getResourceAsStream("/two-organizations.xml"));
+
+        assertEquals(1, index.size());
+        assertNull(index.findByURI(dataset));
+        assertNotNull(index.findByURI("http://llur.landsh.de/pegel/114437/Wasserstand.csv"));
+    }
+
+    /**
+     * The statistics count every dataset once, no matter how often its page is filtered.
+     */
+    @Test
+    public void work_updates_statistics() {
+        final String llur = "http://141.91.184.90/organization/llur";
+        final String unwanted = "https://opendata.schleswig-holstein.de/organization/ee4df032-ec5f-4726-b7ad-a2c708fb53ec";
+        final FilterStatistics statistics = catalogFilter.getStatistics();
+
+        catalogFilter.work(getClass().getResourceAsStream("/two-organizations.xml"));
+        catalogFilter.work(getClass().getResourceAsStream("/two-organizations.xml"));
+
+        assertEquals(1, statistics.get(llur, FilterStatistics.Counter.INCLUDED));
+        assertEquals(1, statistics.get(unwanted, FilterStatistics.Counter.INCLUDED));
+        assertEquals(0, statistics.get(unwanted, FilterStatistics.Counter.UNWANTED_PUBLISHER));
+
+        catalogFilter.setUnwantedPublishers(Collections.singletonList(unwanted));
+        catalogFilter.work(getClass().getResourceAsStream("/two-organizations.xml"));
+
+        assertEquals(1, statistics.get(llur, FilterStatistics.Counter.INCLUDED));
+        assertEquals(0, statistics.get(unwanted, FilterStatistics.Counter.INCLUDED));
+        assertEquals(1, statistics.get(unwanted, FilterStatistics.Counter.UNWANTED_PUBLISHER));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void work_counts_added_properties() throws Exception {
+        catalogFilter.replaceURL = Collections.emptyList();
+        catalogFilter.afterPropertiesSet();
+
+        final Model model = catalogFilter.work(getClass().getResourceAsStream("/with_collection.xml"));
+
+        final Map<String, Long> total = (Map<String, Long>) catalogFilter.getStatistics().toMap().get("total");
+        assertEquals(countInstances(model, DCAT.Dataset), (long) total.get("included"));
+        assertEquals(model.listStatements(null, DCTerms.rights, (RDFNode) null).toList().size(), (long) total.get("rightsAdded"));
+        assertTrue(total.get("downloadURLAdded") > 0);
+    }
+
+    /**
+     * Filtering the datasets of a page in parallel produces the same output as the serial filter.
+     */
+    @Test
+    public void work_parallel_output_matches_serial_output() throws Exception {
+        final CatalogFilter serialFilter = new CatalogFilter();
+        serialFilter.setBaseURL("https://example.org/");
+        serialFilter.filterParallelism = 1;
+        catalogFilter.filterParallelism = 4;
+
+        final byte[] page = CatalogGenerator.generate(2, 50, 0, 0);
+        final Model serial = serialFilter.work(new ByteArrayInputStream(page));
+        final Model parallel = catalogFilter.work(new ByteArrayInputStream(page));
+
+        assertEquals(50, countInstances(parallel, DCAT.Dataset));
+        assertTrue(serial.isIsomorphicWith(parallel));
+    }
+
+    @Test
+    public void destroy() {
+        catalogFilter.filterParallelism = 4;
+        catalogFilter.work(new ByteArrayInputStream(CatalogGenerator.generate(0, 20, 0, 0)));
+        final ForkJoinPool pool = catalogFilter.forkJoinPool;
+        assertNotNull(pool);
+
+        catalogFilter.destroy();
+
+        assertTrue(pool.isShutdown());
+        assertNull(catalogFilter.forkJoinPool);
+    }
+
+    /**
+     * A dataset with a syntax error is skipped, the other datasets of the page are filtered as usual.
+     */
+    @Test
+    public void work_skips_broken_datasets() throws Exception {
+        catalogFilter.replaceURL = Collections.emptyList();
+        catalogFilter.afterPropertiesSet();
+        final List<String> skipped = new ArrayList<>();
+
+        final Model model = catalogFilter.work(brokenDatasets(), skipped);
+
+        assertEquals(Arrays.asList("https://opendata.schleswig-holstein.de/dataset/a7d88277-c68d-4935-b911-000115d75d2b",
+                "https://opendata.schleswig-holstein.de/dataset/caaf7acf-a6e8-4ee9-a2ab-594cde699447"), skipped);
+        final Model expected = catalogFilter.work(getClass().getResourceAsStream("/with_collection.xml"));
+        for (String uri : skipped) {
+            expected.removeAll(expected.createResource(uri), null, null);
+            expected.removeAll(null, DCAT.dataset, expected.createResource(uri));
+            assertFalse(model.contains(model.createResource(uri), RDF.type, DCAT.Dataset));
+        }
+        assertEquals(countInstances(expected, DCAT.Dataset), countInstances(model, DCAT.Dataset));
+    }
+
+    @Test
+    public void work_strict_without_recovery() {
+        catalogFilter.replaceURL = Collections.emptyList();
+        catalogFilter.maxSkippedDatasets = 0;
+
+        assertThrows(RiotException.class, () -> catalogFilter.work(brokenDatasets(), null));
+    }
+
+    /**
+     * A page that is read from a stream is always parsed strictly.
+     */
+    @Test
+    public void work_stream_is_strict() {
+        catalogFilter.replaceURL = Collections.emptyList();
+
+        assertThrows(RiotException.class, () -> catalogFilter.work(getClass().getResourceAsStream("/broken_datasets.xml")));
+    }
+
+    /**
+     * If too many datasets are broken, the page is considered broken.
+     */
+    @Test
+    public void work_too_many_broken_datasets() {
+        catalogFilter.replaceURL = Collections.emptyList();
+        catalogFilter.maxSkippedDatasets = 1;
+
+        assertThrows(RiotException.class, () -> catalogFilter.work(brokenDatasets(), null));
+    }
+
+    private byte[] brokenDatasets() throws IOException {
+        return StreamUtils.copyToByteArray(getClass().getResourceAsStream("/broken_datasets.xml"));
+    }
 }
@@ -0,0 +1,74 @@
+package de.landsh.opendata.catalogproxy;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Erzeugt synthetische catalog.xml Seiten im Format von CKAN für Lasttests und Benchmarks.
+ */
+public class CatalogGenerator {
+
+    private static final String[] FORMATS = {"CSV", "JSON", "PDF", "XLSX", "HTML"};
+
+    /**
+     * @param datasets number of datasets on the page
+     * @param revision datasets whose number is a multiple of <code>changeEvery</code> get this revision in their
+     *                 modification date, all other datasets stay unchanged
+     */
+    public static byte[] generate(int page, int datasets, int revision, int changeEvery) {
+        final StringBuilder sb = new StringBuilder(datasets * 2500);
+        sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        sb.append("<rdf:RDF\n");
+        sb.append("  xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"\n");
+        sb.append("  xmlns:dcat=\"http://www.w3.org/ns/dcat#\"\n");
+        sb.append("  xmlns:dct=\"http://purl.org/dc/terms/\"\n");
+        sb.append("  xmlns:hydra=\"http://www.w3.org/ns/hydra/core#\"\n");
+        sb.append("  xmlns:schema=\"http://schema.org/\"\n");
+        sb.append(">\n");
+        sb.append("  <dcat:Catalog rdf:about=\"https://opendata.example.org\">\n");
+        for (int i = 0; i < datasets; i++) {
+            final int number = page * datasets + i;
+            final int datasetRevision = changeEvery > 0 && number % changeEvery == 0 ? revision : 0;
+            sb.append("    <dcat:dataset>\n");
+            sb.append("      <dcat:Dataset rdf:about=\"https://opendata.example.org/dataset/").append(number).append("\">\n");
+            sb.append("        <dct:title>Datensatz ").append(number).append("</dct:title>\n");
+            sb.append("        <dct:identifier>").append(number).append("</dct:identifier>\n");
+            sb.append("        <dct:description>Beschreibung des Datensatzes ").append(number)
+                    .append(". Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore et dolore magna aliqua.</dct:description>\n");
+            sb.append("        <dct:publisher rdf:resource=\"https://opendata.example.org/organization/").append(number % 7).append("\"/>\n");
+            sb.append("        <dct:modified rdf:datatype=\"http://www.w3.org/2001/XMLSchema#dateTime\">2022-01-")
+                    .append(String.format("%02d", 1 + datasetRevision % 28)).append("T00:00:00</dct:modified>\n");
+            sb.append("        <dct:temporal>\n");
+            sb.append("          <dct:PeriodOfTime rdf:nodeID=\"N").append(number).append("r").append(revision).append("\">\n");
+            sb.append("            <schema:startDate rdf:datatype=\"http://www.w3.org/2001/XMLSchema#dateTime\">2020-01-01T00:00:00</schema:startDate>\n");
+            sb.append("          </dct:PeriodOfTime>\n");
+            sb.append("        </dct:temporal>\n");
+            for (int d = 0; d < 3; d++) {
+                sb.append("        <dcat:distribution rdf:resource=\"https://opendata.example.org/dataset/").append(number)
+                        .append("/resource/").append(d).append("\"/>\n");
+            }
+            sb.append("        <dcat:keyword>Statistik</dcat:keyword>\n");
+            sb.append("        <dcat:keyword>Schlagwort ").append(number % 13).append("</dcat:keyword>\n");
+            sb.append("      </dcat:Dataset>\n");
+            sb.append("    </dcat:dataset>\n");
+        }
+        sb.append("  </dcat:Catalog>\n");
+        for (int i = 0; i < datasets; i++) {
+            final int number = page * datasets + i;
+            for (int d = 0; d < 3; d++) {
+                sb.append("  <dcat:Distribution rdf:about=\"https://opendata.example.org/dataset/").append(number)
+                        .append("/resource/").append(d).append("\">\n");
+                sb.append("    <dct:title>Datei ").append(d).append("</dct:title>\n");
+                sb.append("    <dcat:accessURL rdf:resource=\"https://opendata.example.org/files/").append(number).append('/').append(d).append("\"/>\n");
+                sb.append("    <dct:format rdf:resource=\"http://publications.europa.eu/resource/authority/file-type/")
+                        .append(FORMATS[(number + d) % FORMATS.length]).append("\"/>\n");
+                sb.append("    <dct:license rdf:resource=\"http://dcat-ap.de/def/licenses/dl-by-de/2.0\"/>\n");
+                sb.append("  </dcat:Distribution>\n");
+            }
+        }
+        sb.append("  <hydra:PagedCollection rdf:about=\"https://opendata.example.org/catalog.xml?page=").append(page).append("\">\n");
+        sb.append("    <hydra:nextPage>https://opendata.example.org/catalog.xml?page=").append(page + 1).append("</hydra:nextPage>\n");
+        sb.append("  </hydra:PagedCollection>\n");
+        sb.append("</rdf:RDF>\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,308 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.mockserver.configuration.ConfigurationProperties;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.RequestDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.StreamUtils;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockserver.integration.ClientAndServer.startClientAndServer;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * Lasttest des gesamten Proxys: die Anwendung wird gegen einen MockServer gestartet, der große, mit
+ * {@link CatalogGenerator} erzeugte Seiten mit einstellbarer Verzögerung ausliefert. Mehrere Harvester rufen
+ * gleichzeitig alle Seiten nacheinander ab, zuerst ohne Cache (<code>cold</code>), dann mit gefülltem Cache
+ * (<code>cached</code>). Gemessen werden für beide Phasen Durchsatz, Median und 99. Perzentil der Antwortzeiten und die
+ * Zahl der Anfragen an den Upstream-Katalog, außerdem wie weit der Heap während der <code>cold</code> Phase über den
+ * Stand davor gewachsen ist. Der Test schlägt fehl, wenn sich ein Wert gegenüber <code>loadtest-baseline.properties</code> um mehr als
+ * <code>loadtest.tolerance</code> verschlechtert.
+ * <p>
+ * Aufruf: <code>mvn -P loadtest verify</code>, eine neue Baseline schreibt
+ * <code>mvn -P loadtest verify -Dloadtest.updateBaseline=true</code>. Das Szenario wird mit
+ * <code>-Dloadtest.pages</code>, <code>.datasets</code>, <code>.harvesters</code>, <code>.rounds</code> und
+ * <code>.latency</code> eingestellt; weicht es von dem der Baseline ab, wird nur gemessen.
+ */
+public class CatalogProxyLoadIT {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogProxyLoadIT.class);
+
+    private static final int PAGES = Integer.getInteger("loadtest.pages", 20);
+    private static final int DATASETS = Integer.getInteger("loadtest.datasets", 200);
+    private static final int HARVESTERS = Integer.getInteger("loadtest.harvesters", 8);
+    private static final int ROUNDS = Integer.getInteger("loadtest.rounds", 3);
+    /**
+     * Upstream response time in milliseconds.
+     */
+    private static final int LATENCY = Integer.getInteger("loadtest.latency", 200);
+    /**
+     * Relative deviation from the baseline that is not considered a regression, e.g. 0.3 for 30%. It can be set per
+     * value with <code>loadtest.tolerance.&lt;key&gt;</code>.
+     */
+    private static final String TOLERANCE = System.getProperty("loadtest.tolerance", "0.3");
+
+    private static ClientAndServer mockServer;
+    private static ConfigurableApplicationContext application;
+    private static String baseURL;
+
+    @BeforeAll
+    public static void start() {
+        // logging every matched request would format each generated page and exhaust the heap
+        ConfigurationProperties.logLevel("WARN");
+        mockServer = startClientAndServer();
+        // the second half of the pages is used for the warm-up
+        for (int page = 1; page <= 2 * PAGES; page++) {
+            mockServer.when(request("/catalog.xml").withQueryStringParameter("page", String.valueOf(page)))
+                    .respond(response()
+                            .withHeader("Content-Type", "application/rdf+xml")
+                            .withBody(CatalogGenerator.generate(page, DATASETS, 0, 0))
+                            .withDelay(TimeUnit.MILLISECONDS, LATENCY));
+        }
+
+        // the cache is enabled for the second phase of the test
+        application = SpringApplication.run(DcatCatalogProxyApplication.class,
+                "--server.port=0",
+                "--remoteURL=http://localhost:" + mockServer.getPort() + "/",
+                "--baseURL=http://localhost:8080/",
+                "--cacheTTL=0",
+                "--staleWhileRevalidate=0",
+                "--staleIfError=0");
+        baseURL = "http://localhost:" + application.getEnvironment().getProperty("local.server.port") + "/";
+    }
+
+    @AfterAll
+    public static void stop() {
+        if (application != null) {
+            application.close();
+        }
+        if (mockServer != null) {
+            mockServer.stop();
+        }
+    }
+
+    @Test
+    public void harvest() throws Exception {
+        final Properties result = run();
+
+        final Path resultFile = Paths.get(System.getProperty("loadtest.result", "target/loadtest/result.properties"));
+        store(result, resultFile);
+        log.info("Load test result written to {}: {}", resultFile, new TreeMap<>(result));
+
+        final Path baselineFile = Paths.get(System.getProperty("loadtest.baseline",
+                "src/test/resources/loadtest-baseline.properties"));
+        if (Boolean.getBoolean("loadtest.updateBaseline")) {
+            store(result, baselineFile);
+            log.info("Baseline {} updated", baselineFile);
+            return;
+        }
+
+        final Properties baseline = new Properties();
+        try (InputStream in = Files.newInputStream(baselineFile)) {
+            baseline.load(in);
+        }
+        assumeTrue(scenario(result).equals(scenario(baseline)),
+                "The scenario differs from the baseline, the result is not compared");
+
+        final List<String> regressions = new ArrayList<>();
+        for (String phase : new String[]{"cold", "cached"}) {
+            compare(regressions, baseline, result, phase + "Throughput", false);
+            compare(regressions, baseline, result, phase + "P50Millis", true);
+            compare(regressions, baseline, result, phase + "P99Millis", true);
+            compare(regressions, baseline, result, phase + "UpstreamRequests", true);
+        }
+        compare(regressions, baseline, result, "heapPeakBytes", true);
+        assertTrue(regressions.isEmpty(), "Regressions against " + baselineFile + ": " + regressions);
+    }
+
+    private Properties run() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(HARVESTERS);
+        try {
+            // let the JIT compile the request handling, so that it does not dominate the slowest responses
+            harvest(executor, PAGES + 1, 1);
+
+            final Properties result = new Properties();
+            result.setProperty("pages", String.valueOf(PAGES));
+            result.setProperty("datasets", String.valueOf(DATASETS));
+            result.setProperty("harvesters", String.valueOf(HARVESTERS));
+            result.setProperty("rounds", String.valueOf(ROUNDS));
+            result.setProperty("latency", String.valueOf(LATENCY));
+
+            // every page is fetched and filtered, only simultaneous requests for the same page are combined
+            final long heapBefore = resetHeapPeak();
+            measure(executor, "cold", result);
+            result.setProperty("heapPeakBytes", String.valueOf(heapPeak() - heapBefore));
+
+            final CatalogCache cache = application.getBean(CatalogRegistry.class).getDefaultCatalog().getCatalogCache();
+            cache.timeToLive = TimeUnit.HOURS.toSeconds(1);
+            // fills the cache and warms up serving from it
+            harvest(executor, 1, ROUNDS);
+            // every page is served from the cache
+            measure(executor, "cached", result);
+            return result;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void measure(ExecutorService executor, String phase, Properties result) throws Exception {
+        final int upstreamBefore = upstreamRequests();
+        final long start = System.nanoTime();
+        final long[] latencies = harvest(executor, 1, ROUNDS);
+        final long duration = System.nanoTime() - start;
+        Arrays.sort(latencies);
+
+        result.setProperty(phase + "Throughput", String.format(Locale.ROOT, "%.2f", latencies.length / (duration / 1e9)));
+        result.setProperty(phase + "P50Millis", String.format(Locale.ROOT, "%.1f", percentile(latencies, 50) / 1e6));
+        result.setProperty(phase + "P99Millis", String.format(Locale.ROOT, "%.1f", percentile(latencies, 99) / 1e6));
+        result.setProperty(phase + "UpstreamRequests", String.valueOf(upstreamRequests() - upstreamBefore));
+    }
+
+    /**
+     * Runs <code>loadtest.harvesters</code> harvesters at the same time.
+     *
+     * @return the response times of all harvesters in nanoseconds
+     */
+    private long[] harvest(ExecutorService executor, int firstPage, int rounds) throws Exception {
+        final List<Future<long[]>> harvesters = new ArrayList<>();
+        for (int i = 0; i < HARVESTERS; i++) {
+            harvesters.add(executor.submit(() -> harvester(firstPage, rounds)));
+        }
+        final long[] latencies = new long[HARVESTERS * rounds * PAGES];
+        int count = 0;
+        for (Future<long[]> harvester : harvesters) {
+            final long[] harvesterLatencies = harvester.get();
+            System.arraycopy(harvesterLatencies, 0, latencies, count, harvesterLatencies.length);
+            count += harvesterLatencies.length;
+        }
+        return latencies;
+    }
+
+    /**
+     * Pages through the catalog like a harvester.
+     *
+     * @param firstPage number of the first of <code>loadtest.pages</code> pages
+     * @return the response times in nanoseconds
+     */
+    private long[] harvester(int firstPage, int rounds) throws IOException {
+        final long[] latencies = new long[rounds * PAGES];
+        int count = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (int page = firstPage; page < firstPage + PAGES; page++) {
+                final long start = System.nanoTime();
+                final HttpURLConnection connection = (HttpURLConnection) new URL(baseURL + "catalog.xml?page=" + page)
+                        .openConnection();
+                try {
+                    assertEquals(200, connection.getResponseCode(), "Status of page " + page);
+                    try (InputStream in = connection.getInputStream()) {
+                        StreamUtils.drain(in);
+                    }
+                } finally {
+                    connection.disconnect();
+                }
+                latencies[count++] = System.nanoTime() - start;
+            }
+        }
+        return latencies;
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * Collects the garbage and resets the peak usage of the heap pools, so that {@link #heapPeak()} only covers what
+     * follows.
+     *
+     * @return the heap in use afterwards in bytes, mostly MockServer, the generated pages and the application context
+     */
+    private static long resetHeapPeak() {
+        System.gc();
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    /**
+     * @return the sum of the peak usage of all heap pools since {@link #resetHeapPeak()} in bytes
+     */
+    private static long heapPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static int upstreamRequests() {
+        final RequestDefinition[] requests = mockServer.retrieveRecordedRequests(request("/catalog.xml"));
+        return requests == null ? 0 : requests.length;
+    }
+
+    private static List<String> scenario(Properties properties) {
+        final List<String> result = new ArrayList<>();
+        for (String key : new String[]{"pages", "datasets", "harvesters", "rounds", "latency"}) {
+            result.add(properties.getProperty(key));
+        }
+        return result;
+    }
+
+    /**
+     * @param lowerIsBetter whether a higher value than the baseline is a regression
+     */
+    private static void compare(List<String> regressions, Properties baseline, Properties result, String key,
+                                boolean lowerIsBetter) {
+        final double tolerance = Double.parseDouble(System.getProperty("loadtest.tolerance." + key, TOLERANCE));
+        final double expected = Double.parseDouble(baseline.getProperty(key));
+        final double actual = Double.parseDouble(result.getProperty(key));
+        final boolean regressed = lowerIsBetter ? actual > expected * (1 + tolerance) : actual < expected * (1 - tolerance);
+        if (regressed) {
+            regressions.add(key + " " + actual + " instead of " + expected);
+        }
+    }
+
+    /**
+     * Writes the properties sorted by key, so that changes of the baseline are easy to review.
+     */
+    private static void store(Properties properties, Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.ISO_8859_1)) {
+            out.write("# Result of " + CatalogProxyLoadIT.class.getSimpleName() + "\n");
+            for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+                out.write(key + "=" + properties.getProperty(key) + "\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.DCTerms;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CatalogRegistryTest {
+
+    private final Map<String, Object> properties = new HashMap<>();
+    private final UpstreamCatalog defaultCatalog = new UpstreamCatalog(null, new CatalogFilter(), new CatalogCache());
+    private CatalogRegistry registry;
+
+    @BeforeEach
+    public void setUp() {
+        final StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("test", properties));
+        registry = new CatalogRegistry(defaultCatalog, environment);
+
+        properties.put("cacheTTL", "120");
+        properties.put("catalogs", "kiel, luebeck");
+        properties.put("catalog.kiel.remoteURL", "https://opendata.kiel.de/");
+        properties.put("catalog.kiel.unwantedPublishers", "{'https://opendata.kiel.de/organization/a'}");
+        properties.put("catalog.kiel.maxConnections", "2");
+        properties.put("catalog.luebeck.remoteURL", "https://opendata.luebeck.de/");
+        properties.put("catalog.luebeck.cacheTTL", "60");
+    }
+
+    @Test
+    public void default_catalog() throws Exception {
+        registry.afterPropertiesSet();
+
+        assertSame(defaultCatalog, registry.get(null));
+        assertSame(defaultCatalog, registry.getDefaultCatalog());
+        assertNull(registry.get("unknown"));
+        assertEquals(3, registry.getAll().size());
+    }
+
+    @Test
+    public void catalogs_have_their_own_configuration() throws Exception {
+        registry.afterPropertiesSet();
+
+        final UpstreamCatalog kiel = registry.get("kiel");
+        final UpstreamCatalog luebeck = registry.get("luebeck");
+
+        assertEquals("kiel", kiel.getName());
+        assertEquals("https://opendata.kiel.de/", kiel.remoteURL);
+        assertEquals(2, kiel.maxConnections);
+        assertEquals(120, kiel.getCatalogCache().timeToLive);
+
+        assertEquals("https://opendata.luebeck.de/", luebeck.remoteURL);
+        assertEquals(4, luebeck.maxConnections);
+        assertEquals(60, luebeck.getCatalogCache().timeToLive);
+
+        assertNotSame(kiel.getCatalogCache(), luebeck.getCatalogCache());
+        assertNotSame(kiel.getCatalogFilter(), luebeck.getCatalogFilter());
+
+        final Model model = ModelFactory.createDefaultModel();
+        final Resource dataset = model.createResource("https://example.org/dataset")
+                .addProperty(DCTerms.publisher, model.createResource("https://opendata.kiel.de/organization/a"));
+        assertFalse(kiel.getCatalogFilter().isDatasetOfPublicAdministration(dataset));
+        assertTrue(luebeck.getCatalogFilter().isDatasetOfPublicAdministration(dataset));
+
+        registry.destroy();
+    }
+
+    @Test
+    public void catalogs_have_their_own_filter_settings() throws Exception {
+        properties.put("maxSkippedDatasets", "5");
+        properties.put("filterParallelism", "3");
+        properties.put("catalog.kiel.maxSkippedDatasets", "0");
+        properties.put("catalog.kiel.filterParallelism", "1");
+        properties.put("catalog.kiel.datasetCacheSize", "100");
+        registry.afterPropertiesSet();
+
+        final CatalogFilter kiel = registry.get("kiel").getCatalogFilter();
+        assertEquals(0, kiel.maxSkippedDatasets);
+        assertEquals(1, kiel.filterParallelism);
+        assertEquals(100, kiel.datasetCacheSize);
+
+        final CatalogFilter luebeck = registry.get("luebeck").getCatalogFilter();
+        assertEquals(5, luebeck.maxSkippedDatasets);
+        assertEquals(3, luebeck.filterParallelism);
+        assertEquals(10000, luebeck.datasetCacheSize);
+
+        registry.destroy();
+    }
+
+    @Test
+    public void remoteURL_is_required() {
+        properties.remove("catalog.luebeck.remoteURL");
+
+        assertThrows(IllegalArgumentException.class, () -> registry.afterPropertiesSet());
+    }
+
+    @Test
+    public void parseList() {
+        assertEquals(Collections.emptyList(), CatalogRegistry.parseList(null));
+        assertEquals(Collections.emptyList(), CatalogRegistry.parseList(" "));
+        assertEquals(Arrays.asList("a", "b"), CatalogRegistry.parseList("{'a','b'}"));
+        assertEquals(Collections.singletonList("a"), CatalogRegistry.parseList("'a'"));
+    }
+}
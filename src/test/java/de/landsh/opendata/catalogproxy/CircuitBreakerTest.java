@@ -0,0 +1,111 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CircuitBreakerTest {
+
+    private final CatalogCacheTest.MutableClock clock = new CatalogCacheTest.MutableClock();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker("test", 3, 1000, 30000);
+
+    @BeforeEach
+    public void setUp() {
+        circuitBreaker.clock = clock;
+    }
+
+    private void fail(int times) throws Exception {
+        for (int i = 0; i < times; i++) {
+            circuitBreaker.acquire();
+            circuitBreaker.onFailure();
+        }
+    }
+
+    @Test
+    public void opens_after_consecutive_failures() throws Exception {
+        fail(2);
+        circuitBreaker.acquire();
+        circuitBreaker.onSuccess(10);
+        fail(2);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+        fail(1);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        final CircuitBreaker.CircuitOpenException e = assertThrows(CircuitBreaker.CircuitOpenException.class,
+                circuitBreaker::acquire);
+        assertEquals(30000, e.getRetryAfterMillis());
+    }
+
+    @Test
+    public void slow_calls_count_as_failures() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            circuitBreaker.acquire();
+            circuitBreaker.onSuccess(5000);
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void half_open_trial_closes() throws Exception {
+        fail(3);
+        clock.advance(30);
+
+        circuitBreaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        // only one trial request at a time
+        assertThrows(CircuitBreaker.CircuitOpenException.class, circuitBreaker::acquire);
+
+        circuitBreaker.onSuccess(10);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        circuitBreaker.acquire();
+    }
+
+    @Test
+    public void half_open_trial_fails() throws Exception {
+        fail(3);
+        clock.advance(30);
+
+        circuitBreaker.acquire();
+        circuitBreaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertThrows(CircuitBreaker.CircuitOpenException.class, circuitBreaker::acquire);
+    }
+
+    @Test
+    public void half_open_trial_cancelled() throws Exception {
+        fail(3);
+        clock.advance(30);
+
+        circuitBreaker.acquire();
+        circuitBreaker.onCancel();
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        circuitBreaker.acquire();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void metrics() throws Exception {
+        fail(3);
+        assertThrows(CircuitBreaker.CircuitOpenException.class, circuitBreaker::acquire);
+        clock.advance(30);
+        circuitBreaker.acquire();
+        circuitBreaker.onSuccess(1);
+
+        final Map<String, Object> metrics = circuitBreaker.getMetrics();
+        assertEquals("CLOSED", metrics.get("state"));
+        assertEquals(3L, metrics.get("failures"));
+        assertEquals(1L, metrics.get("successes"));
+        assertEquals(1L, metrics.get("rejected"));
+        final Map<String, Long> transitions = (Map<String, Long>) metrics.get("transitions");
+        assertEquals(1L, (long) transitions.get("OPEN"));
+        assertEquals(1L, (long) transitions.get("HALF_OPEN"));
+        assertEquals(1L, (long) transitions.get("CLOSED"));
+    }
+}
@@ -0,0 +1,152 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClientLimiterTest {
+
+    private final ClientLimiter limiter = new ClientLimiter();
+    private final AtomicLong now = new AtomicLong(-5_000_000_000L);
+
+    @BeforeEach
+    public void setUp() {
+        limiter.rate = 2;
+        limiter.burst = 3;
+        limiter.apiKeys = "{'secret':'govdata'}";
+        limiter.clientWeights = "{'govdata':2}";
+        limiter.nanoTime = now::get;
+        limiter.afterPropertiesSet();
+    }
+
+    private void advance(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    public void tryAcquire() {
+        final ClientLimiter.Client client = limiter.identify(null, "192.0.2.1");
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire(client));
+        }
+        assertEquals(500, limiter.tryAcquire(client));
+
+        advance(499);
+        assertEquals(1, limiter.tryAcquire(client));
+        advance(1);
+        assertEquals(0, limiter.tryAcquire(client));
+        assertEquals(500, limiter.tryAcquire(client));
+
+        // the bucket holds no more than the burst
+        advance(10000);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire(client));
+        }
+        assertTrue(limiter.tryAcquire(client) > 0);
+    }
+
+    @Test
+    public void clients_are_independent() {
+        final ClientLimiter.Client first = limiter.identify(null, "192.0.2.1");
+        for (int i = 0; i < 3; i++) {
+            limiter.tryAcquire(first);
+        }
+
+        assertTrue(limiter.tryAcquire(limiter.identify(null, "192.0.2.1")) > 0);
+        assertEquals(0, limiter.tryAcquire(limiter.identify(null, "192.0.2.2")));
+    }
+
+    /**
+     * A known API key identifies its client regardless of the address, and its weight scales the rate.
+     */
+    @Test
+    public void api_key() {
+        final ClientLimiter.Client client = limiter.identify("secret", "192.0.2.1");
+
+        assertEquals("govdata", client.getId());
+        assertEquals(2, client.getWeight());
+        assertSame(client, limiter.identify("secret", "192.0.2.99"));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire(client));
+        }
+        assertEquals(250, limiter.tryAcquire(client));
+
+        assertEquals("192.0.2.1", limiter.identify("guessed", "192.0.2.1").getId());
+    }
+
+    @Test
+    public void unlimited() {
+        limiter.rate = 0;
+        final ClientLimiter.Client client = limiter.identify(null, "192.0.2.1");
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, limiter.tryAcquire(client));
+        }
+    }
+
+    @Test
+    public void idle_clients_are_evicted() {
+        limiter.maxClients = 2;
+        final ClientLimiter.Client busy = limiter.identify(null, "192.0.2.1");
+        limiter.tryAcquire(busy);
+        limiter.identify(null, "192.0.2.2");
+
+        limiter.identify(null, "192.0.2.3");
+
+        final Map<?, ?> clients = (Map<?, ?>) limiter.getMetrics().get("clients");
+        assertEquals(2, clients.size());
+        assertTrue(clients.containsKey("192.0.2.1"));
+        assertTrue(clients.containsKey("192.0.2.3"));
+    }
+
+    @Test
+    public void new_clients_share_a_bucket_while_all_clients_are_busy() {
+        limiter.maxClients = 2;
+        limiter.tryAcquire(limiter.identify(null, "192.0.2.1"));
+        limiter.tryAcquire(limiter.identify(null, "192.0.2.2"));
+
+        final ClientLimiter.Client overflow = limiter.identify(null, "192.0.2.3");
+        assertEquals(ClientLimiter.OVERFLOW, overflow.getId());
+        limiter.tryAcquire(overflow);
+        assertSame(overflow, limiter.identify(null, "192.0.2.4"));
+        assertEquals("govdata", limiter.identify("secret", "192.0.2.5").getId());
+
+        final Map<?, ?> clients = (Map<?, ?>) limiter.getMetrics().get("clients");
+        assertEquals(4, clients.size());
+        assertFalse(clients.containsKey("192.0.2.3"));
+        assertFalse(clients.containsKey("192.0.2.4"));
+
+        // once the buckets are full again, the clients are idle and make room
+        advance(2000);
+        assertEquals("192.0.2.6", limiter.identify(null, "192.0.2.6").getId());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void getMetrics() {
+        final ClientLimiter.Client client = limiter.identify(null, "192.0.2.1");
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire(client);
+        }
+
+        final Map<String, Object> metrics = (Map<String, Object>) ((Map<String, Object>) limiter.getMetrics()
+                .get("clients")).get("192.0.2.1");
+
+        assertEquals(3L, metrics.get("admitted"));
+        assertEquals(2L, metrics.get("throttled"));
+        assertEquals(1, metrics.get("weight"));
+    }
+
+    @Test
+    public void invalid_weight() {
+        limiter.clientWeights = "{'govdata':0}";
+
+        assertThrows(IllegalArgumentException.class, limiter::afterPropertiesSet);
+    }
+}
@@ -0,0 +1,76 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.vocabulary.DCAT;
+import org.apache.jena.vocabulary.DCTerms;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DatasetIndexTest {
+
+    private final DatasetIndex index = new DatasetIndex();
+
+    private static byte[] dataset(String uri, String title) {
+        final Model model = ModelFactory.createDefaultModel();
+        model.createResource(uri)
+                .addProperty(RDF.type, DCAT.Dataset)
+                .addProperty(DCTerms.title, title);
+        return RdfSnapshot.encode(model.getGraph());
+    }
+
+    @Test
+    public void find() {
+        index.put("https://example.org/dataset/1", "1",
+                Arrays.asList("https://example.org/distribution/1", null), dataset("https://example.org/dataset/1", "Eins"));
+
+        assertEquals(1, index.size());
+        assertEquals("1", index.findByURI("https://example.org/dataset/1").getIdentifier());
+        assertSame(index.findByURI("https://example.org/dataset/1"), index.findByIdentifier("1"));
+        assertSame(index.findByURI("https://example.org/dataset/1"), index.findByURI("https://example.org/distribution/1"));
+        assertNull(index.findByURI("https://example.org/dataset/2"));
+        assertNull(index.findByIdentifier("2"));
+
+        final Model model = index.findByIdentifier("1").toModel();
+        assertEquals("Eins", model.getResource("https://example.org/dataset/1").getProperty(DCTerms.title).getString());
+    }
+
+    /**
+     * A new version of a dataset replaces its keys.
+     */
+    @Test
+    public void replace() {
+        index.put("https://example.org/dataset/1", "1",
+                Collections.singletonList("https://example.org/distribution/1"), dataset("https://example.org/dataset/1", "Eins"));
+        index.put("https://example.org/dataset/1", "eins",
+                Collections.singletonList("https://example.org/distribution/2"), dataset("https://example.org/dataset/1", "Uno"));
+
+        assertEquals(1, index.size());
+        assertNull(index.findByIdentifier("1"));
+        assertNull(index.findByURI("https://example.org/distribution/1"));
+        final Model model = index.findByURI("https://example.org/distribution/2").toModel();
+        assertEquals("Uno", model.getResource("https://example.org/dataset/1").getProperty(DCTerms.title).getString());
+    }
+
+    @Test
+    public void remove() {
+        index.put("https://example.org/dataset/1", "1",
+                Collections.singletonList("https://example.org/distribution/1"), dataset("https://example.org/dataset/1", "Eins"));
+        index.put("https://example.org/dataset/2", "2",
+                Collections.emptyList(), dataset("https://example.org/dataset/2", "Zwei"));
+
+        index.remove("https://example.org/dataset/1");
+        index.remove("https://example.org/dataset/3");
+
+        assertEquals(1, index.size());
+        assertNull(index.findByURI("https://example.org/dataset/1"));
+        assertNull(index.findByIdentifier("1"));
+        assertNull(index.findByURI("https://example.org/distribution/1"));
+        assertNotNull(index.findByIdentifier("2"));
+    }
+}
@@ -0,0 +1,87 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.vocabulary.DCAT;
+import org.apache.jena.vocabulary.DCTerms;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DatasetPartitionTest {
+
+    private static final String DATASET = "https://opendata.example.org/dataset/3";
+
+    private static Model parse(byte[] data) {
+        final Model model = ModelFactory.createDefaultModel();
+        RDFParser.create()
+                .source(new ByteArrayInputStream(data))
+                .lang(RDFLanguages.RDFXML)
+                .parse(model);
+        return model;
+    }
+
+    private static DatasetPartition partition(int revision, int changeEvery) {
+        final Model model = parse(CatalogGenerator.generate(0, 5, revision, changeEvery));
+        return DatasetPartition.of(model.getResource(DATASET));
+    }
+
+    @Test
+    public void of_collects_dataset_distributions_and_blank_nodes() {
+        final DatasetPartition partition = partition(0, 0);
+
+        final Model model = ModelFactory.createDefaultModel().add(partition.getStatements());
+
+        assertEquals(1, model.listSubjectsWithProperty(RDF.type, DCAT.Dataset).toList().size());
+        assertEquals(3, model.listSubjectsWithProperty(RDF.type, DCAT.Distribution).toList().size());
+        assertEquals(1, model.listSubjectsWithProperty(RDF.type, DCTerms.PeriodOfTime).toList().size());
+        assertEquals(DATASET, partition.getDataset().getURI());
+    }
+
+    /**
+     * The digest does not depend on the labels of blank nodes, which are different on every request.
+     */
+    @Test
+    public void digest_is_independent_of_blank_node_labels() {
+        assertEquals(partition(1, 0).digest(), partition(2, 0).digest());
+    }
+
+    @Test
+    public void digest_changes_with_content() {
+        assertNotEquals(partition(1, 3).digest(), partition(2, 3).digest());
+    }
+
+    @Test
+    public void digest_includes_nested_blank_nodes() {
+        final Model model1 = ModelFactory.createDefaultModel();
+        final Resource dataset1 = model1.createResource(DATASET);
+        dataset1.addProperty(DCTerms.temporal, model1.createResource().addProperty(DCTerms.title, "a"));
+
+        final Model model2 = ModelFactory.createDefaultModel();
+        final Resource dataset2 = model2.createResource(DATASET);
+        dataset2.addProperty(DCTerms.temporal, model2.createResource().addProperty(DCTerms.title, "b"));
+
+        assertNotEquals(DatasetPartition.of(dataset1).digest(), DatasetPartition.of(dataset2).digest());
+    }
+
+    @Test
+    public void digest_of_cyclic_blank_nodes() {
+        final Model model = ModelFactory.createDefaultModel();
+        final Resource a = model.createResource();
+        final Resource b = model.createResource();
+        a.addProperty(DCTerms.relation, b);
+        b.addProperty(DCTerms.relation, a);
+        final Resource dataset = model.createResource(DATASET).addProperty(DCTerms.relation, a);
+
+        final DatasetPartition partition = DatasetPartition.of(dataset);
+
+        assertEquals(3, partition.getStatements().size());
+        assertNotNull(partition.digest());
+    }
+}
@@ -0,0 +1,97 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FairSchedulerTest {
+
+    private final FairScheduler scheduler = new FairScheduler(1);
+    private final ClientLimiter.Client harvester = new ClientLimiter.Client("harvester", 1, 0);
+    private final ClientLimiter.Client other = new ClientLimiter.Client("other", 1, 0);
+    private final ClientLimiter.Client weighted = new ClientLimiter.Client("weighted", 2, 0);
+    private final List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+    private CompletableFuture<Void> enqueue(ClientLimiter.Client client) throws InterruptedException {
+        final int waiting = scheduler.getWaiting();
+        final CompletableFuture<Void> result = CompletableFuture.runAsync(() -> {
+            try {
+                assertTrue(scheduler.acquire(client, 10000));
+                order.add(client.getId());
+                scheduler.release();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        // enqueue in a defined order
+        while (scheduler.getWaiting() == waiting) {
+            Thread.sleep(1);
+        }
+        return result;
+    }
+
+    /**
+     * A client that arrives after many requests of a harvester is served after the first of them.
+     */
+    @Test
+    public void fair_order() throws Exception {
+        assertTrue(scheduler.tryAcquire());
+        final List<CompletableFuture<Void>> requests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            requests.add(enqueue(harvester));
+        }
+        requests.add(enqueue(other));
+
+        scheduler.release();
+        CompletableFuture.allOf(requests.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList("harvester", "other", "harvester", "harvester"), order);
+    }
+
+    @Test
+    public void weighted_order() throws Exception {
+        assertTrue(scheduler.tryAcquire());
+        final List<CompletableFuture<Void>> requests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            requests.add(enqueue(harvester));
+        }
+        for (int i = 0; i < 3; i++) {
+            requests.add(enqueue(weighted));
+        }
+
+        scheduler.release();
+        CompletableFuture.allOf(requests.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList("weighted", "harvester", "weighted", "weighted", "harvester", "harvester"), order);
+    }
+
+    @Test
+    public void tryAcquire_does_not_overtake() throws Exception {
+        assertTrue(scheduler.tryAcquire());
+        final CompletableFuture<Void> waiting = enqueue(other);
+
+        scheduler.release();
+        waiting.get(5, TimeUnit.SECONDS);
+
+        assertTrue(scheduler.tryAcquire());
+        assertFalse(scheduler.tryAcquire());
+    }
+
+    @Test
+    public void acquire_timeout() throws InterruptedException {
+        assertTrue(scheduler.tryAcquire());
+
+        assertFalse(scheduler.acquire(other, 10));
+        assertEquals(0, scheduler.getWaiting());
+
+        scheduler.release();
+        assertTrue(scheduler.acquire(other, 10));
+    }
+}
@@ -0,0 +1,109 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.jena.vocabulary.DCAT;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FilterConfigWatcherTest {
+
+    private static final String UNWANTED = "https://opendata.schleswig-holstein.de/organization/ee4df032-ec5f-4726-b7ad-a2c708fb53ec";
+
+    @TempDir
+    Path directory;
+
+    private final CatalogFilter catalogFilter = new CatalogFilter();
+    private FilterConfigWatcher watcher;
+    private Path file;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        catalogFilter.replaceURL = Collections.emptyList();
+        catalogFilter.afterPropertiesSet();
+
+        file = directory.resolve("filter.properties");
+        watcher = new FilterConfigWatcher(new CatalogRegistry(new UpstreamCatalog(null, catalogFilter, new CatalogCache()), null));
+        watcher.filterConfig = file.toString();
+        watcher.interval = 3600000;
+    }
+
+    private void write(String content, long modified) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+    }
+
+    @Test
+    public void reload() throws Exception {
+        write("unwantedPublishers={'" + UNWANTED + "'}\nreplaceURL={'http://example.org/','https://example.com/'}\n", 1000000);
+        watcher.afterPropertiesSet();
+        final long version = catalogFilter.getRulesVersion();
+
+        assertEquals(Collections.singleton(UNWANTED), catalogFilter.getRules().getUnwantedPublishers());
+        assertEquals("https://example.com/", catalogFilter.getRules().getUrlReplacements().get("http://example.org/"));
+        assertEquals(1, catalogFilter.work(getClass().getResourceAsStream("/two-organizations.xml"))
+                .listSubjectsWithProperty(RDF.type, DCAT.Dataset).toList().size());
+
+        // unchanged file
+        assertFalse(watcher.check());
+
+        write("replaceURL={'http://example.org/','https://example.com/'}\n", 2000000);
+        assertTrue(watcher.check());
+        assertEquals(version + 1, catalogFilter.getRulesVersion());
+        assertTrue(catalogFilter.getRules().getUnwantedPublishers().isEmpty());
+
+        watcher.destroy();
+    }
+
+    /**
+     * An invalid file does not change the rules.
+     */
+    @Test
+    public void invalid_file() throws Exception {
+        write("unwantedPublishers={'" + UNWANTED + "'}\n", 1000000);
+        watcher.afterPropertiesSet();
+        final long version = catalogFilter.getRulesVersion();
+
+        write("unwantedPublishers={'a'}\nreplaceURL={'http://example.org/'}\n", 2000000);
+        assertTrue(watcher.check());
+
+        assertEquals(version, catalogFilter.getRulesVersion());
+        assertEquals(Collections.singleton(UNWANTED), catalogFilter.getRules().getUnwantedPublishers());
+
+        watcher.destroy();
+    }
+
+    /**
+     * Without the file the initial configuration applies.
+     */
+    @Test
+    public void deleted_file() throws Exception {
+        write("unwantedPublishers={'" + UNWANTED + "'}\n", 1000000);
+        watcher.afterPropertiesSet();
+
+        Files.delete(file);
+        assertTrue(watcher.check());
+
+        assertTrue(catalogFilter.getRules().getUnwantedPublishers().isEmpty());
+
+        watcher.destroy();
+    }
+
+    @Test
+    public void disabled() {
+        watcher.filterConfig = "";
+        watcher.afterPropertiesSet();
+        watcher.destroy();
+
+        assertEquals(0, catalogFilter.getRulesVersion());
+    }
+}
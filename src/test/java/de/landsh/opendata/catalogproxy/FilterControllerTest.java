@@ -1,22 +1,33 @@
 package de.landsh.opendata.catalogproxy;
 
+import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.vocabulary.DCAT;
+import org.apache.jena.vocabulary.RDF;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mockito;
 import org.mockserver.client.MockServerClient;
 import org.mockserver.integration.ClientAndServer;
 import org.mockserver.model.Header;
 import org.mockserver.model.HttpStatusCode;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
 import org.springframework.mock.web.MockHttpServletResponse;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockserver.integration.ClientAndServer.startClientAndServer;
+import static org.mockserver.matchers.Times.once;
 import static org.mockserver.matchers.Times.unlimited;
 import static org.mockserver.model.HttpRequest.request;
 import static org.mockserver.model.HttpResponse.response;
@@ -25,7 +36,12 @@ public class FilterControllerTest {
     private static ClientAndServer mockServer;
     CatalogFilter catalogFilter = Mockito.mock(CatalogFilter.class);
     MockHttpServletResponse response = new MockHttpServletResponse();
-    FilterController controller = new FilterController(catalogFilter);
+    CatalogCache catalogCache = new CatalogCache();
+    UpstreamCatalog upstreamCatalog = new UpstreamCatalog(null, catalogFilter, catalogCache);
+    Tracer tracer = new Tracer();
+    FilterController controller = new FilterController(new CatalogRegistry(upstreamCatalog, null), tracer);
+    @TempDir
+    Path trafficDirectory;
 
     @BeforeAll
     public static void startServer() throws IOException {
@@ -41,9 +57,18 @@ public class FilterControllerTest {
 
     @BeforeEach
     public void setUp() {
-        Mockito.when(catalogFilter.work(any())).thenReturn(ModelFactory.createDefaultModel());
+        Mockito.when(catalogFilter.work(any(InputStream.class))).thenReturn(ModelFactory.createDefaultModel());
+        Mockito.when(catalogFilter.work(any(byte[].class), any())).thenReturn(ModelFactory.createDefaultModel());
+        Mockito.when(catalogFilter.getRules()).thenReturn(FilterRules.EMPTY);
 
-        controller.remoteURL = "http://localhost:" + mockServer.getPort() + "/";
+        upstreamCatalog.remoteURL = "http://localhost:" + mockServer.getPort() + "/";
+        upstreamCatalog.afterPropertiesSet();
+
+        catalogCache.timeToLive = 0;
+        catalogCache.staleWhileRevalidate = 0;
+        catalogCache.staleIfError = 3600;
+        catalogCache.maxEntries = 10;
+        catalogCache.afterPropertiesSet();
     }
 
     @Test
@@ -68,7 +93,7 @@ public class FilterControllerTest {
                                 .withBody(rawdata)
                 );
 
-        controller.catalog(5, "myquery", "org:zit", "2022-02-07", response);
+        controller.catalog(null, 5, "myquery", "org:zit", "2022-02-07", null, response);
 
         assertEquals("<rdf:RDF\n" +
                 "    xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">\n" +
@@ -95,11 +120,228 @@ public class FilterControllerTest {
                 );
 
 
-        controller.catalog(null, null, null, null, response);
+        controller.catalog(null, null, null, null, null, null, response);
 
         assertEquals("application/rdf+xml;charset=utf-8", response.getContentType());
         assertEquals("<rdf:RDF\n" +
                 "    xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">\n" +
                 "</rdf:RDF>\n", response.getContentAsString());
     }
+
+    /**
+     * If the upstream catalog is not available, the last good copy is served with a Warning header.
+     */
+    @Test
+    public void catalog_serves_stale_copy_if_upstream_fails() throws IOException {
+        byte[] rawdata = "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"></rdf:RDF>".getBytes();
+
+        new MockServerClient("127.0.0.1", mockServer.getPort())
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/catalog.xml")
+                                .withQueryStringParameter("page", "7"),
+                        once())
+                .respond(
+                        response()
+                                .withStatusCode(HttpStatusCode.OK_200.code())
+                                .withBody(rawdata)
+                );
+        new MockServerClient("127.0.0.1", mockServer.getPort())
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/catalog.xml")
+                                .withQueryStringParameter("page", "7"),
+                        once())
+                .respond(
+                        response()
+                                .withStatusCode(HttpStatusCode.SERVICE_UNAVAILABLE_503.code())
+                );
+
+        controller.catalog(null, 7, null, null, null, null, response);
+        assertNull(response.getHeader("Warning"));
+
+        final MockHttpServletResponse staleResponse = new MockHttpServletResponse();
+        controller.catalog(null, 7, null, null, null, null, staleResponse);
+
+        assertEquals(CatalogCache.WARNING_REVALIDATION_FAILED, staleResponse.getHeader("Warning"));
+        assertNotNull(staleResponse.getHeader("Age"));
+        assertEquals(response.getContentAsString(), staleResponse.getContentAsString());
+    }
+
+    @Test
+    public void catalog_unknown_catalog() throws IOException {
+        controller.catalog("unknown", null, null, null, null, null, response);
+
+        assertEquals(404, response.getStatus());
+    }
+
+    /**
+     * Additional catalogs are served under their own path prefix and fetched from their own upstream.
+     */
+    @Test
+    public void catalog_named_catalog() throws Exception {
+        byte[] rawdata = "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" xmlns:dcat=\"http://www.w3.org/ns/dcat#\"><dcat:Catalog rdf:about=\"https://opendata.kiel.de\"></dcat:Catalog></rdf:RDF>".getBytes();
+
+        new MockServerClient("127.0.0.1", mockServer.getPort())
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/kiel/catalog.xml")
+                                .withQueryStringParameter("page", "2"),
+                        unlimited())
+                .respond(
+                        response()
+                                .withStatusCode(HttpStatusCode.OK_200.code())
+                                .withBody(rawdata)
+                );
+
+        final StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("test", Collections.singletonMap("catalogs", "kiel")));
+        environment.getPropertySources().addFirst(new MapPropertySource("kiel", Collections.singletonMap("catalog.kiel.remoteURL",
+                "http://localhost:" + mockServer.getPort() + "/kiel/")));
+        final CatalogRegistry registry = new CatalogRegistry(upstreamCatalog, environment);
+        registry.afterPropertiesSet();
+
+        new FilterController(registry, tracer).catalog("kiel", 2, null, null, null, null, response);
+
+        assertEquals(200, response.getStatus());
+        assertTrue(response.getContentAsString().contains("https://opendata.kiel.de"));
+
+        registry.destroy();
+    }
+
+    /**
+     * Upstream responses are recorded and can be served from the archive without the upstream catalog.
+     */
+    @Test
+    public void catalog_record_and_replay() throws IOException {
+        byte[] rawdata = "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"></rdf:RDF>".getBytes();
+
+        new MockServerClient("127.0.0.1", mockServer.getPort())
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/catalog.xml")
+                                .withQueryStringParameter("page", "11"),
+                        once())
+                .respond(
+                        response()
+                                .withStatusCode(HttpStatusCode.OK_200.code())
+                                .withHeaders(new Header("Content-Type", "application/xml"))
+                                .withBody(rawdata)
+                );
+
+        upstreamCatalog.recordTraffic = trafficDirectory.toString();
+        upstreamCatalog.afterPropertiesSet();
+        controller.catalog(null, 11, null, null, null, null, response);
+
+        final TrafficArchive archive = new TrafficArchive(trafficDirectory);
+        final TrafficArchive.Recording recording = archive.find(upstreamCatalog.buildURL(11, null, null, null));
+        assertEquals(200, recording.getStatus());
+        assertEquals("application/xml", recording.getHeader("Content-Type"));
+        assertArrayEquals(rawdata, recording.getBody());
+
+        upstreamCatalog.recordTraffic = null;
+        upstreamCatalog.replayTraffic = trafficDirectory.toString();
+        upstreamCatalog.afterPropertiesSet();
+        final MockHttpServletResponse replayed = new MockHttpServletResponse();
+        controller.catalog(null, 11, null, null, null, null, replayed);
+
+        assertEquals(200, replayed.getStatus());
+        assertEquals(response.getContentAsString(), replayed.getContentAsString());
+
+        final MockHttpServletResponse notRecorded = new MockHttpServletResponse();
+        assertThrows(IOException.class, () -> controller.catalog(null, 12, null, null, null, null, notRecorded));
+    }
+
+    /**
+     * The trace context of the request is passed to the upstream catalog and the trace is retained.
+     */
+    @Test
+    public void catalog_trace() throws IOException {
+        final String traceId = "0af7651916cd43dd8448eb211c80319c";
+        new MockServerClient("127.0.0.1", mockServer.getPort())
+                .when(request().withMethod("GET").withPath("/catalog.xml").withQueryStringParameter("page", "13")
+                        .withHeader(Tracer.TRACEPARENT, "00-" + traceId + "-[0-9a-f]{16}-01"), once())
+                .respond(response().withStatusCode(200).withBody("<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"/>"));
+
+        controller.catalog(null, 13, null, null, null, "00-" + traceId + "-b7ad6b7169203331-01", response);
+
+        assertEquals(200, response.getStatus());
+        assertEquals(traceId, response.getHeader(FilterController.TRACE_ID_HEADER));
+        final Map<String, Object> trace = tracer.getSlowest().get(0).toMap();
+        assertEquals(traceId, trace.get("traceId"));
+        assertEquals("b7ad6b7169203331", trace.get("parentId"));
+        assertTrue(trace.toString().contains("name=upstream.connect"));
+        assertTrue(trace.toString().contains("name=serialize"));
+    }
+
+    @Test
+    public void catalog_not_enough_memory() throws IOException {
+        new MockServerClient("127.0.0.1", mockServer.getPort())
+                .when(request().withMethod("GET").withPath("/catalog.xml").withQueryStringParameter("page", "12"), once())
+                .respond(response().withStatusCode(200).withBody("<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"/>"));
+        upstreamCatalog.getMemoryBudget().maxBytes = 100;
+        upstreamCatalog.getMemoryBudget().maxPageBytes = 1000;
+        upstreamCatalog.getMemoryBudget().queueTimeout = 5000;
+
+        controller.catalog(null, 12, null, null, null, null, response);
+
+        assertEquals(503, response.getStatus());
+        assertEquals("5", response.getHeader("Retry-After"));
+    }
+
+    /**
+     * After repeated failures the upstream catalog is not contacted any more until the circuit is half open.
+     */
+    @Test
+    public void catalog_circuit_open() throws IOException {
+        upstreamCatalog.remoteURL = "http://localhost:1/";
+        upstreamCatalog.circuitFailureThreshold = 2;
+        upstreamCatalog.afterPropertiesSet();
+
+        assertThrows(IOException.class, () -> controller.catalog(null, 1, null, null, null, null, new MockHttpServletResponse()));
+        assertThrows(IOException.class, () -> controller.catalog(null, 1, null, null, null, null, new MockHttpServletResponse()));
+        assertEquals(CircuitBreaker.State.OPEN, upstreamCatalog.getCircuitBreaker().getState());
+
+        controller.catalog(null, 1, null, null, null, null, response);
+
+        assertEquals(503, response.getStatus());
+        assertEquals("30", response.getHeader("Retry-After"));
+    }
+
+    @Test
+    public void dataset() throws IOException {
+        final Model model = ModelFactory.createDefaultModel();
+        model.createResource("https://example.org/dataset/1").addProperty(RDF.type, DCAT.Dataset);
+        upstreamCatalog.getDatasetIndex().put("https://example.org/dataset/1", "1",
+                Collections.singletonList("https://example.org/distribution/1"), RdfSnapshot.encode(model.getGraph()));
+
+        controller.dataset(null, null, "1", response);
+
+        assertEquals(200, response.getStatus());
+        assertEquals("application/rdf+xml;charset=utf-8", response.getContentType());
+        assertNotNull(response.getHeader("Age"));
+        assertTrue(response.getContentAsString().contains("<dcat:Dataset rdf:about=\"https://example.org/dataset/1\""));
+
+        final MockHttpServletResponse byDistribution = new MockHttpServletResponse();
+        controller.dataset(null, "https://example.org/distribution/1", null, byDistribution);
+        assertEquals(response.getContentAsString(), byDistribution.getContentAsString());
+    }
+
+    @Test
+    public void dataset_not_indexed() throws IOException {
+        controller.dataset(null, "https://example.org/dataset/2", null, response);
+
+        assertEquals(404, response.getStatus());
+    }
+
+    @Test
+    public void dataset_without_parameters() throws IOException {
+        controller.dataset(null, null, null, response);
+
+        assertEquals(400, response.getStatus());
+    }
 }
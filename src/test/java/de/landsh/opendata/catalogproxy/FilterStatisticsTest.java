@@ -0,0 +1,70 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FilterStatisticsTest {
+
+    private final FilterStatistics statistics = new FilterStatistics();
+
+    @Test
+    public void record() {
+        final FilterStatistics.Outcome included = new FilterStatistics.Outcome("https://example.org/org/a")
+                .add(FilterStatistics.Counter.INCLUDED, 1)
+                .add(FilterStatistics.Counter.DOWNLOAD_URL_ADDED, 2);
+
+        statistics.record("https://example.org/dataset/1", included);
+        statistics.record("https://example.org/dataset/1", included);
+        statistics.record("https://example.org/dataset/2", new FilterStatistics.Outcome(null)
+                .add(FilterStatistics.Counter.NO_VALID_DISTRIBUTION, 1));
+
+        assertEquals(1, statistics.get("https://example.org/org/a", FilterStatistics.Counter.INCLUDED));
+        assertEquals(2, statistics.get("https://example.org/org/a", FilterStatistics.Counter.DOWNLOAD_URL_ADDED));
+        assertEquals(1, statistics.get(null, FilterStatistics.Counter.NO_VALID_DISTRIBUTION));
+        assertEquals(0, statistics.get("https://example.org/org/b", FilterStatistics.Counter.INCLUDED));
+    }
+
+    /**
+     * A changed result replaces the previous one.
+     */
+    @Test
+    public void record_changed_outcome() {
+        statistics.record("https://example.org/dataset/1", new FilterStatistics.Outcome("https://example.org/org/a")
+                .add(FilterStatistics.Counter.INCLUDED, 1)
+                .add(FilterStatistics.Counter.RIGHTS_ADDED, 1));
+        statistics.record("https://example.org/dataset/1", new FilterStatistics.Outcome("https://example.org/org/a")
+                .add(FilterStatistics.Counter.UNWANTED_PUBLISHER, 1));
+
+        assertEquals(0, statistics.get("https://example.org/org/a", FilterStatistics.Counter.INCLUDED));
+        assertEquals(0, statistics.get("https://example.org/org/a", FilterStatistics.Counter.RIGHTS_ADDED));
+        assertEquals(1, statistics.get("https://example.org/org/a", FilterStatistics.Counter.UNWANTED_PUBLISHER));
+
+        statistics.remove("https://example.org/dataset/1");
+        statistics.remove("https://example.org/dataset/2");
+
+        assertEquals(0, statistics.get("https://example.org/org/a", FilterStatistics.Counter.UNWANTED_PUBLISHER));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void toMap() {
+        statistics.record("https://example.org/dataset/1", new FilterStatistics.Outcome("https://example.org/org/a")
+                .add(FilterStatistics.Counter.INCLUDED, 1));
+        statistics.record("https://example.org/dataset/2", new FilterStatistics.Outcome("https://example.org/org/b")
+                .add(FilterStatistics.Counter.INCLUDED, 1)
+                .add(FilterStatistics.Counter.RIGHTS_ADDED, 3));
+
+        final Map<String, Object> result = statistics.toMap();
+
+        assertEquals(2, result.get("datasets"));
+        final Map<String, Long> total = (Map<String, Long>) result.get("total");
+        assertEquals(2L, (long) total.get("included"));
+        assertEquals(3L, (long) total.get("rightsAdded"));
+        assertEquals(0L, (long) total.get("unwantedPublisher"));
+        final Map<String, Map<String, Long>> publishers = (Map<String, Map<String, Long>>) result.get("publishers");
+        assertEquals(3L, (long) publishers.get("https://example.org/org/b").get("rightsAdded"));
+    }
+}
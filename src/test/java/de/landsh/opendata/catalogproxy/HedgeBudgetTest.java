@@ -0,0 +1,39 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HedgeBudgetTest {
+
+    @Test
+    public void ratio() {
+        final HedgeBudget budget = new HedgeBudget();
+        budget.ratio = 0.1;
+
+        for (int i = 0; i < 9; i++) {
+            budget.onRequest();
+        }
+        assertFalse(budget.tryAcquire());
+
+        budget.onRequest();
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+    }
+
+    @Test
+    public void burst() {
+        final HedgeBudget budget = new HedgeBudget();
+        budget.ratio = 1;
+        budget.burst = 3;
+
+        for (int i = 0; i < 100; i++) {
+            budget.onRequest();
+        }
+
+        assertTrue(budget.tryAcquire());
+        assertTrue(budget.tryAcquire());
+        assertTrue(budget.tryAcquire());
+        assertFalse(budget.tryAcquire());
+    }
+}
@@ -0,0 +1,40 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyTrackerTest {
+
+    @Test
+    public void percentile() {
+        final LatencyTracker tracker = new LatencyTracker(100);
+        assertEquals(-1, tracker.percentile(95));
+
+        for (int i = 100; i >= 1; i--) {
+            tracker.add(i);
+        }
+
+        assertEquals(100, tracker.getCount());
+        assertEquals(50, tracker.percentile(50));
+        assertEquals(95, tracker.percentile(95));
+        assertEquals(100, tracker.percentile(100));
+    }
+
+    /**
+     * Only the most recent samples are considered.
+     */
+    @Test
+    public void recent_samples() {
+        final LatencyTracker tracker = new LatencyTracker(10);
+        for (int i = 0; i < 10; i++) {
+            tracker.add(5000);
+        }
+        for (int i = 0; i < 10; i++) {
+            tracker.add(20);
+        }
+
+        assertEquals(10, tracker.getCount());
+        assertEquals(20, tracker.percentile(95));
+    }
+}
@@ -0,0 +1,151 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemoryBudgetTest {
+
+    private static final String URL = "https://example.org/catalog.xml?page=1";
+
+    private final MemoryBudget budget = new MemoryBudget();
+
+    @BeforeEach
+    public void setUp() {
+        budget.maxBytes = 1000;
+        budget.factor = 10;
+        budget.queueTimeout = 100;
+    }
+
+    @Test
+    public void reservePage() throws IOException {
+        final MemoryBudget.Reservation first = budget.open();
+        first.reservePage(60, URL);
+        assertEquals(600, budget.getUsed());
+
+        final MemoryBudget.Reservation second = budget.open();
+        assertThrows(MemoryBudget.RejectedException.class, () -> second.reservePage(50, URL));
+        assertEquals(600, budget.getUsed());
+
+        first.close();
+        second.reservePage(50, URL);
+        assertEquals(500, budget.getUsed());
+        second.close();
+        second.close();
+
+        assertEquals(0, budget.getUsed());
+        assertEquals(2L, budget.getMetrics().get("admitted"));
+        assertEquals(1L, budget.getMetrics().get("rejected"));
+        assertEquals(600L, budget.getMetrics().get("peakBytes"));
+    }
+
+    /**
+     * A request waits until another one releases its memory.
+     */
+    @Test
+    public void reservePage_queued() throws Exception {
+        budget.queueTimeout = 10000;
+        final MemoryBudget.Reservation first = budget.open();
+        first.reservePage(60, URL);
+
+        final CompletableFuture<MemoryBudget.Reservation> waiting = CompletableFuture.supplyAsync(() -> {
+            final MemoryBudget.Reservation second = budget.open();
+            try {
+                second.reservePage(50, URL);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return second;
+        });
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+
+        first.close();
+        waiting.get(5, TimeUnit.SECONDS).close();
+
+        assertEquals(1L, budget.getMetrics().get("queued"));
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void reservePage_too_large() {
+        final MemoryBudget.Reservation reservation = budget.open();
+
+        assertThrows(MemoryBudget.PageTooLargeException.class, () -> reservation.reservePage(101, URL));
+        assertEquals(1L, budget.getMetrics().get("oversized"));
+    }
+
+    /**
+     * Without Content-Length the reservation grows with the bytes read.
+     */
+    @Test
+    public void track() throws IOException {
+        final MemoryBudget.Reservation reservation = budget.open();
+        reservation.reservePage(10, URL);
+
+        try (InputStream in = reservation.track(new ByteArrayInputStream(new byte[40]), URL)) {
+            assertEquals(40, StreamUtils.copyToByteArray(in).length);
+        }
+        assertTrue(reservation.getBytes() >= 400);
+        assertEquals(reservation.getBytes(), budget.getUsed());
+
+        reservation.close();
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void track_exceeds_maxPageBytes() {
+        final MemoryBudget.Reservation reservation = budget.open();
+
+        assertThrows(MemoryBudget.PageTooLargeException.class, () -> {
+            try (InputStream in = reservation.track(new ByteArrayInputStream(new byte[200]), URL)) {
+                StreamUtils.copyToByteArray(in);
+            }
+        });
+        reservation.close();
+        assertEquals(0, budget.getUsed());
+    }
+
+    /**
+     * A growing request does not wait for memory held by others.
+     */
+    @Test
+    public void track_exceeds_budget() throws IOException {
+        final MemoryBudget.Reservation other = budget.open();
+        other.reservePage(80, URL);
+        final MemoryBudget.Reservation reservation = budget.open();
+
+        assertThrows(MemoryBudget.RejectedException.class, () -> {
+            try (InputStream in = reservation.track(new ByteArrayInputStream(new byte[50]), URL)) {
+                StreamUtils.copyToByteArray(in);
+            }
+        });
+        other.close();
+        reservation.close();
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void limit() throws IOException {
+        assertEquals(100, StreamUtils.copyToByteArray(budget.limit(new ByteArrayInputStream(new byte[100]), URL)).length);
+        assertThrows(MemoryBudget.PageTooLargeException.class,
+                () -> StreamUtils.copyToByteArray(budget.limit(new ByteArrayInputStream(new byte[101]), URL)));
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void defaults() {
+        final MemoryBudget defaults = new MemoryBudget();
+
+        assertEquals(Runtime.getRuntime().maxMemory() / 2, defaults.maxBytes());
+        assertEquals(defaults.maxBytes() / 10, defaults.maxPageBytes());
+    }
+}
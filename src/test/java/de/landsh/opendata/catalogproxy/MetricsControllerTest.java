@@ -0,0 +1,63 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsControllerTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void upstream() {
+        final UpstreamCatalog catalog = new UpstreamCatalog(null, new CatalogFilter(), new CatalogCache());
+        catalog.afterPropertiesSet();
+        final MetricsController controller = new MetricsController(new CatalogRegistry(catalog, null), new ClientLimiter());
+
+        final Map<String, Object> result = controller.upstream();
+
+        final Map<String, Object> metrics = (Map<String, Object>) result.get("default");
+        assertEquals(0L, metrics.get("hedges"));
+        assertEquals("CLOSED", ((Map<String, Object>) metrics.get("circuitBreaker")).get("state"));
+    }
+
+    @Test
+    public void memory() {
+        final UpstreamCatalog catalog = new UpstreamCatalog(null, new CatalogFilter(), new CatalogCache());
+        final MetricsController controller = new MetricsController(new CatalogRegistry(catalog, null), new ClientLimiter());
+
+        final Map<String, Object> result = controller.memory();
+
+        assertEquals(0L, result.get("usedBytes"));
+        assertEquals(catalog.getMemoryBudget().maxBytes(), result.get("maxBytes"));
+    }
+
+    @Test
+    public void clients() {
+        final ClientLimiter clientLimiter = new ClientLimiter();
+        clientLimiter.tryAcquire(clientLimiter.identify(null, "192.0.2.1"));
+        final MetricsController controller = new MetricsController(new CatalogRegistry(
+                new UpstreamCatalog(null, new CatalogFilter(), new CatalogCache()), null), clientLimiter);
+
+        final Map<String, Object> result = controller.clients();
+
+        assertTrue(((Map<?, ?>) result.get("clients")).containsKey("192.0.2.1"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void stats() {
+        final CatalogFilter filter = new CatalogFilter();
+        filter.setBaseURL("https://example.org/");
+        filter.work(getClass().getResourceAsStream("/two-organizations.xml"));
+        final MetricsController controller = new MetricsController(new CatalogRegistry(
+                new UpstreamCatalog(null, filter, new CatalogCache()), null), new ClientLimiter());
+
+        final Map<String, Object> stats = (Map<String, Object>) controller.stats().get("default");
+
+        assertEquals(2, stats.get("datasets"));
+        assertEquals(2L, ((Map<String, Object>) stats.get("total")).get("included"));
+        assertTrue(((Map<String, Object>) stats.get("publishers")).containsKey("http://141.91.184.90/organization/llur"));
+    }
+}
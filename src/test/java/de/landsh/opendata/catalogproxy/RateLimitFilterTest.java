@@ -0,0 +1,61 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RateLimitFilterTest {
+
+    private final ClientLimiter limiter = new ClientLimiter();
+    private final RateLimitFilter filter = new RateLimitFilter(limiter);
+
+    @BeforeEach
+    public void setUp() {
+        limiter.rate = 0.5;
+        limiter.burst = 1;
+        limiter.afterPropertiesSet();
+    }
+
+    private int handled;
+
+    private MockHttpServletResponse get(String uri) throws ServletException, IOException {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+        request.setRemoteAddr("192.0.2.1");
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, (req, res) -> {
+            handled++;
+            if (!"/metrics/upstream".equals(uri)) {
+                assertEquals("192.0.2.1", ClientLimiter.current().getId());
+            }
+        });
+        return response;
+    }
+
+    @Test
+    public void too_many_requests() throws Exception {
+        assertEquals(200, get("/catalog.xml").getStatus());
+
+        final MockHttpServletResponse response = get("/kiel/catalog.xml");
+
+        assertEquals(429, response.getStatus());
+        assertEquals(1, handled);
+        assertEquals("2", response.getHeader("Retry-After"));
+        assertSame(ClientLimiter.BACKGROUND, ClientLimiter.current());
+    }
+
+    @Test
+    public void other_paths_are_not_limited() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(200, get("/metrics/upstream").getStatus());
+        }
+        assertEquals(3, handled);
+        assertEquals(200, get("/dataset").getStatus());
+        assertEquals(429, get("/dataset").getStatus());
+    }
+}
@@ -0,0 +1,84 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+
+/**
+ * Vergleicht das Schreiben und Lesen eines gefilterten Katalogs als RDF/XML und als binären {@link RdfSnapshot}.
+ * <p>
+ * Aufruf: <code>java -cp target/classes:target/test-classes:... de.landsh.opendata.catalogproxy.RdfSnapshotBenchmark [datasets] [rounds]</code>
+ */
+public class RdfSnapshotBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int datasets = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        final CatalogFilter filter = new CatalogFilter();
+        filter.setBaseURL("http://localhost:8080/");
+        filter.setReplaceURL(Collections.emptyList());
+        filter.afterPropertiesSet();
+        final Model model = filter.work(new ByteArrayInputStream(CatalogGenerator.generate(0, datasets, 0, 0)));
+
+        // warm up
+        xmlRoundTrip(model, rounds);
+        snapshotRoundTrip(model, rounds);
+
+        final long[] xml = xmlRoundTrip(model, rounds);
+        final long[] snapshot = snapshotRoundTrip(model, rounds);
+
+        System.out.printf("%d triples, %d rounds%n", model.size(), rounds);
+        System.out.printf("RDF/XML:  %9d bytes, write %7.2f ms, read %7.2f ms%n", xml[0], xml[1] / 1e6 / rounds, xml[2] / 1e6 / rounds);
+        System.out.printf("snapshot: %9d bytes, write %7.2f ms, read %7.2f ms%n", snapshot[0], snapshot[1] / 1e6 / rounds, snapshot[2] / 1e6 / rounds);
+    }
+
+    private static long[] xmlRoundTrip(Model model, int rounds) {
+        long writeTime = 0;
+        long readTime = 0;
+        byte[] data = null;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            model.write(out);
+            data = out.toByteArray();
+            writeTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            final Model copy = ModelFactory.createDefaultModel();
+            RDFParser.create().source(new ByteArrayInputStream(data)).lang(RDFLanguages.RDFXML).parse(copy);
+            readTime += System.nanoTime() - start;
+            check(model, copy);
+        }
+        return new long[]{data.length, writeTime, readTime};
+    }
+
+    private static long[] snapshotRoundTrip(Model model, int rounds) {
+        long writeTime = 0;
+        long readTime = 0;
+        byte[] data = null;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            data = RdfSnapshot.encode(model.getGraph());
+            writeTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            final Model copy = ModelFactory.createDefaultModel();
+            RdfSnapshot.decode(data, copy.getGraph());
+            readTime += System.nanoTime() - start;
+            check(model, copy);
+        }
+        return new long[]{data.length, writeTime, readTime};
+    }
+
+    private static void check(Model expected, Model actual) {
+        if (expected.size() != actual.size()) {
+            throw new IllegalStateException("round trip lost triples");
+        }
+    }
+}
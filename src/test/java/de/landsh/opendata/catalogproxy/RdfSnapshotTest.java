@@ -0,0 +1,81 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.DCAT;
+import org.apache.jena.vocabulary.DCTerms;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RdfSnapshotTest {
+
+    @Test
+    public void round_trip() {
+        final Model model = ModelFactory.createDefaultModel();
+        final Resource dataset = model.createResource("https://example.org/dataset", DCAT.Dataset);
+        dataset.addProperty(DCTerms.title, "Straßenbäume", "de");
+        dataset.addProperty(DCTerms.description, "Ohne Sprache");
+        dataset.addProperty(DCTerms.issued, model.createTypedLiteral("2021-03-04", XSDDatatype.XSDdate));
+        dataset.addProperty(DCTerms.temporal, model.createResource(DCTerms.PeriodOfTime)
+                .addProperty(DCAT.startDate, model.createTypedLiteral("2020-01-01", XSDDatatype.XSDdate)));
+
+        final Model copy = ModelFactory.createDefaultModel();
+        RdfSnapshot.decode(RdfSnapshot.encode(model.getGraph()), copy.getGraph());
+
+        assertTrue(model.isIsomorphicWith(copy));
+    }
+
+    @Test
+    public void round_trip_catalog() throws Exception {
+        final Model model = ModelFactory.createDefaultModel();
+        try (InputStream is = getClass().getResourceAsStream("/with_collection.xml")) {
+            model.read(is, null);
+        }
+
+        final byte[] snapshot = RdfSnapshot.encode(model.getGraph());
+        final Model copy = ModelFactory.createDefaultModel();
+        RdfSnapshot.decode(snapshot, copy.getGraph());
+
+        assertEquals(model.size(), copy.size());
+        assertTrue(model.isIsomorphicWith(copy));
+    }
+
+    /**
+     * Blank nodes get new labels on every decode, so that a snapshot can be added to the same graph twice.
+     */
+    @Test
+    public void decode_into_existing_graph() {
+        final Model model = ModelFactory.createDefaultModel();
+        model.createResource().addProperty(RDF.type, DCTerms.PeriodOfTime);
+        final byte[] snapshot = RdfSnapshot.encode(model.getGraph());
+
+        final Model target = ModelFactory.createDefaultModel();
+        target.createResource("https://example.org/catalog", DCAT.Catalog);
+        RdfSnapshot.decode(snapshot, target.getGraph());
+        RdfSnapshot.decode(snapshot, target.getGraph());
+
+        assertEquals(3, target.size());
+        assertEquals(2, target.listSubjectsWithProperty(RDF.type, DCTerms.PeriodOfTime).toList().size());
+    }
+
+    @Test
+    public void empty_graph() {
+        final Model copy = ModelFactory.createDefaultModel();
+        RdfSnapshot.decode(RdfSnapshot.encode(ModelFactory.createDefaultModel().getGraph()), copy.getGraph());
+
+        assertTrue(copy.isEmpty());
+    }
+
+    @Test
+    public void invalid_snapshot() {
+        final Model copy = ModelFactory.createDefaultModel();
+
+        assertThrows(IllegalArgumentException.class, () -> RdfSnapshot.decode(new byte[]{1, 2, 3, 4, 5}, copy.getGraph()));
+    }
+}
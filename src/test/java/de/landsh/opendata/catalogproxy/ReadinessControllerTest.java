@@ -0,0 +1,58 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.AvailabilityState;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ReadinessControllerTest {
+
+    private ReadinessState state = ReadinessState.REFUSING_TRAFFIC;
+
+    private final ApplicationAvailability applicationAvailability = new ApplicationAvailability() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <S extends AvailabilityState> S getState(Class<S> stateType, S defaultState) {
+            return stateType == ReadinessState.class ? (S) state : defaultState;
+        }
+
+        @Override
+        public <S extends AvailabilityState> S getState(Class<S> stateType) {
+            return getState(stateType, null);
+        }
+
+        @Override
+        public <S extends AvailabilityState> AvailabilityChangeEvent<S> getLastChangeEvent(Class<S> stateType) {
+            return null;
+        }
+    };
+
+    private final ReadinessController controller = new ReadinessController(applicationAvailability);
+
+    @Test
+    public void ready_refusing_traffic() throws IOException {
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.ready(response);
+
+        assertEquals(503, response.getStatus());
+        assertEquals("REFUSING_TRAFFIC", response.getContentAsString());
+    }
+
+    @Test
+    public void ready_accepting_traffic() throws IOException {
+        state = ReadinessState.ACCEPTING_TRAFFIC;
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.ready(response);
+
+        assertEquals(200, response.getStatus());
+        assertEquals("ACCEPTING_TRAFFIC", response.getContentAsString());
+    }
+}
@@ -0,0 +1,129 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.riot.RiotException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecoveringParserTest {
+
+    private static final String[] LINES = {
+            "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" xmlns:dcat=\"http://www.w3.org/ns/dcat#\" xmlns:dct=\"http://purl.org/dc/terms/\">",
+            "  <dcat:Catalog rdf:about=\"https://example.org/catalog\">",
+            "    <dcat:dataset rdf:resource=\"https://example.org/dataset/0\"/>",
+            "    <dcat:dataset>",
+            "      <dcat:Dataset rdf:about=\"https://example.org/dataset/1\">",
+            "        <dct:title>Eins</dct:title>",
+            "      </dcat:Dataset>",
+            "    </dcat:dataset>",
+            "    <dcat:dataset>",
+            "      <dcat:Dataset rdf:about=\"https://example.org/dataset/2\">",
+            "        <dct:title>Zwei</dct:titel>",
+            "      </dcat:Dataset>",
+            "    </dcat:dataset>",
+            "  </dcat:Catalog>",
+            "</rdf:RDF>"
+    };
+
+    private static final String DOCUMENT = String.join("\n", LINES);
+
+    @Test
+    public void datasetElementNames() {
+        assertEquals(Collections.singletonList("dcat:dataset"), RecoveringParser.datasetElementNames(DOCUMENT));
+        assertEquals(Arrays.asList("d:dataset", "dataset"), RecoveringParser.datasetElementNames(
+                "<rdf:RDF xmlns:d = 'http://www.w3.org/ns/dcat#' xmlns=\"http://www.w3.org/ns/dcat#\">"));
+        assertEquals(Collections.emptyList(), RecoveringParser.datasetElementNames("<rdf:RDF xmlns:dcat=\"http://example.org/\">"));
+    }
+
+    @Test
+    public void datasetElement() {
+        final List<String> names = Collections.singletonList("dcat:dataset");
+        final int first = DOCUMENT.indexOf("<dcat:dataset>");
+        final int firstEnd = DOCUMENT.indexOf("</dcat:dataset>") + "</dcat:dataset>".length();
+        final int second = DOCUMENT.indexOf("<dcat:dataset>", firstEnd);
+        final int secondEnd = DOCUMENT.indexOf("</dcat:dataset>", second) + "</dcat:dataset>".length();
+
+        assertArrayEquals(new int[]{first, firstEnd}, RecoveringParser.datasetElement(DOCUMENT, names, DOCUMENT.indexOf("Eins")));
+        assertArrayEquals(new int[]{second, secondEnd}, RecoveringParser.datasetElement(DOCUMENT, names, second));
+        assertArrayEquals(new int[]{second, secondEnd}, RecoveringParser.datasetElement(DOCUMENT, names, secondEnd));
+        assertNull(RecoveringParser.datasetElement(DOCUMENT, names, DOCUMENT.indexOf("rdf:about")));
+        assertNull(RecoveringParser.datasetElement(DOCUMENT, names, DOCUMENT.indexOf("dataset/0")));
+        assertNull(RecoveringParser.datasetElement(DOCUMENT, names, DOCUMENT.indexOf("</dcat:Catalog>")));
+        assertNull(RecoveringParser.datasetElement(DOCUMENT, Collections.emptyList(), DOCUMENT.indexOf("Eins")));
+    }
+
+    @Test
+    public void offset() {
+        assertEquals(0, RecoveringParser.offset(DOCUMENT, 1, 1));
+        assertEquals(DOCUMENT.indexOf("<dcat:Catalog"), RecoveringParser.offset(DOCUMENT, 2, 3));
+        assertEquals(-1, RecoveringParser.offset(DOCUMENT, 100, 1));
+    }
+
+    @Test
+    public void locate() {
+        final String document = DOCUMENT.replace("dataset/2", "dataset/2 neu");
+
+        assertEquals(document.indexOf("https://example.org/dataset/2 "),
+                RecoveringParser.locate(document, "Bad character in IRI (space): <https://example.org/dataset/2[space]...>"));
+        assertEquals(-1, RecoveringParser.locate(DOCUMENT, "Bad character in IRI (space): <https://example.org/dataset/2[space]...>"));
+        assertEquals(-1, RecoveringParser.locate(DOCUMENT, "Bad character in IRI (space): <a[space]...>"));
+        assertEquals(-1, RecoveringParser.locate(DOCUMENT, "Content is not allowed in prolog."));
+    }
+
+    @Test
+    public void parse() {
+        assertSkipsSecondDataset(DOCUMENT);
+    }
+
+    /**
+     * The element is found by its namespace, whatever prefix the upstream catalog uses.
+     */
+    @Test
+    public void parse_other_prefix() {
+        assertSkipsSecondDataset(DOCUMENT.replace("dcat:", "d:").replace("xmlns:dcat", "xmlns:d"));
+    }
+
+    @Test
+    public void parse_single_line() {
+        assertSkipsSecondDataset(String.join("", LINES));
+    }
+
+    @Test
+    public void parse_valid_document() {
+        final List<String> skipped = new ArrayList<>();
+        final byte[] document = DOCUMENT.replace("</dct:titel>", "</dct:title>").getBytes(StandardCharsets.UTF_8);
+
+        final Model model = RecoveringParser.parse(document, "https://example.org/", 10, skipped);
+
+        assertTrue(skipped.isEmpty());
+        assertTrue(model.containsResource(model.createResource("https://example.org/dataset/2")));
+    }
+
+    private static void assertSkipsSecondDataset(String document) {
+        final List<String> skipped = new ArrayList<>();
+
+        final Model model = RecoveringParser.parse(document.getBytes(StandardCharsets.UTF_8), "https://example.org/", 10, skipped);
+
+        assertEquals(Collections.singletonList("https://example.org/dataset/2"), skipped);
+        assertTrue(model.containsResource(model.createResource("https://example.org/dataset/1")));
+        assertFalse(model.containsResource(model.createResource("https://example.org/dataset/2")));
+    }
+
+    @Test
+    public void error_outside_of_dataset() {
+        final String[] lines = LINES.clone();
+        lines[1] = "  <dcat:Catalog rdf:about=\"https://example.org/catalog\">>";
+        lines[10] = "        <dct:title>Zwei</dct:title>";
+        lines[13] = "  </dcat:Katalog>";
+        final byte[] document = String.join("\n", lines).getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(RiotException.class, () -> RecoveringParser.parse(document, "https://example.org/", 10, null));
+    }
+}
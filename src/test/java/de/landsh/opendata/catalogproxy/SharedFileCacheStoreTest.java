@@ -0,0 +1,154 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SharedFileCacheStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private SharedFileCacheStore store;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        store = new SharedFileCacheStore(directory, 60000);
+    }
+
+    private static CatalogCache.Entry entry(String body, String rules, long created) {
+        return new CatalogCache.Entry(new CatalogCache.Content(body.getBytes(StandardCharsets.UTF_8),
+                Collections.singletonMap("X-Skipped-Datasets", "1"), rules), created);
+    }
+
+    private static String body(CatalogCache.Entry entry) {
+        return new String(entry.getContent().getBody(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void put_and_get() throws IOException {
+        assertNull(store.get("page1"));
+
+        store.put("page1", entry("first", "c", 1000));
+        final CatalogCache.Entry entry = new SharedFileCacheStore(directory, 60000).get("page1");
+
+        assertEquals("first", body(entry));
+        assertEquals("c", entry.getContent().getRules());
+        assertEquals(1000, entry.getCreated());
+        assertEquals("1", entry.getContent().getHeaders().get("X-Skipped-Datasets"));
+        // an unchanged file is read only once
+        assertSame(store.get("page1"), store.get("page1"));
+    }
+
+    /**
+     * An entry replaced by another instance is read again.
+     */
+    @Test
+    public void get_replaced_entry() throws IOException {
+        store.put("page1", entry("first", "a", 1000));
+        assertEquals("first", body(store.get("page1")));
+
+        new SharedFileCacheStore(directory, 60000).put("page1", entry("second", "a", 2000));
+
+        assertEquals("second", body(store.get("page1")));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void get_ignores_invalid_file() throws IOException {
+        store.put("page1", entry("first", "a", 1000));
+        try (Stream<Path> files = Files.list(directory)) {
+            final Path file = files.filter(f -> f.toString().endsWith(".page")).findFirst().get();
+            Files.write(file, new byte[]{0x44, 0x43, 0x43, 0x31, 0});
+        }
+
+        assertNull(store.get("page1"));
+    }
+
+    @Test
+    public void removeOtherRules() throws IOException {
+        store.put("page1", entry("old", "a", 1000));
+        store.put("page2", entry("new", "b", 1000));
+        store.put("page3", entry("none", null, 1000));
+        // read by this instance before
+        store.get("page1");
+        // written by another instance
+        new SharedFileCacheStore(directory, 60000).put("page4", entry("other", "a", 1000));
+
+        assertEquals(3, store.removeOtherRules("b"));
+
+        assertNull(store.get("page1"));
+        assertEquals("new", body(store.get("page2")));
+        assertNull(store.get("page4"));
+        assertEquals(1, store.size());
+    }
+
+    /**
+     * The directory is listed only once per countInterval, pages of other instances are counted after that.
+     */
+    @Test
+    public void size_counted() throws IOException {
+        assertEquals(0, store.size());
+        store.put("page1", entry("1", "a", 1000));
+        store.put("page1", entry("1", "a", 2000));
+        store.put("page2", entry("2", "a", 1000));
+        new SharedFileCacheStore(directory, 60000).put("page3", entry("3", "a", 1000));
+
+        assertEquals(2, store.size());
+
+        store.countInterval = 0;
+        assertEquals(3, store.size());
+    }
+
+    @Test
+    public void evictOldest() throws IOException {
+        store.put("page1", entry("1", "a", 2000));
+        store.put("page2", entry("2", "a", 1000));
+        store.put("page3", entry("3", "a", 3000));
+
+        store.evictOldest();
+
+        assertEquals(2, store.size());
+        assertNull(store.get("page2"));
+    }
+
+    @Test
+    public void lock() throws IOException {
+        final SharedFileCacheStore other = new SharedFileCacheStore(directory, 60000);
+
+        assertTrue(store.tryLock("page1"));
+        assertFalse(other.tryLock("page1"));
+        assertTrue(other.tryLock("page2"));
+
+        store.unlock("page1");
+        assertTrue(other.tryLock("page1"));
+    }
+
+    /**
+     * An instance whose orphaned lock has been taken over does not remove the new lock.
+     */
+    @Test
+    public void lock_orphaned() throws IOException {
+        final SharedFileCacheStore other = new SharedFileCacheStore(directory, 60000);
+        assertTrue(store.tryLock("page1"));
+        try (Stream<Path> files = Files.list(directory)) {
+            final Path lock = files.filter(f -> f.toString().endsWith(".lock")).findFirst().get();
+            Files.setLastModifiedTime(lock, FileTime.fromMillis(System.currentTimeMillis() - 120000));
+        }
+
+        assertTrue(other.tryLock("page1"));
+        store.unlock("page1");
+
+        assertFalse(new SharedFileCacheStore(directory, 60000).tryLock("page1"));
+    }
+}
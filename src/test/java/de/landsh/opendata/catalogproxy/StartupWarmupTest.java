@@ -0,0 +1,49 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.apache.jena.rdf.model.Model;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.DefaultApplicationArguments;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+
+public class StartupWarmupTest {
+
+    private final List<Model> filteredModels = new ArrayList<>();
+    private CatalogFilter filter;
+
+    private final StartupWarmup startupWarmup = new StartupWarmup(null) {
+        @Override
+        CatalogFilter createFilter() throws Exception {
+            filter = Mockito.spy(super.createFilter());
+            Mockito.doAnswer(invocation -> {
+                final Model model = (Model) invocation.callRealMethod();
+                filteredModels.add(model);
+                return model;
+            }).when(filter).work(any(InputStream.class));
+            return filter;
+        }
+    };
+
+    /**
+     * The sample catalog is filtered in every iteration and the filter is released afterwards.
+     */
+    @Test
+    public void run() throws Exception {
+        startupWarmup.iterations = 2;
+
+        startupWarmup.run(new DefaultApplicationArguments());
+
+        assertEquals(2, filteredModels.size());
+        for (Model model : filteredModels) {
+            assertFalse(model.isEmpty());
+        }
+        Mockito.verify(filter).destroy();
+    }
+}
@@ -0,0 +1,31 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceControllerTest {
+
+    private final Tracer tracer = new Tracer();
+    private final TraceController controller = new TraceController(tracer);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void traces() {
+        try (Tracer.Span ignored = tracer.startTrace("catalog.xml", null)) {
+            Tracer.span("parse").close();
+        }
+
+        final Map<String, Object> result = controller.traces();
+
+        assertEquals(1L, result.get("traces"));
+        final List<Map<String, Object>> slowest = (List<Map<String, Object>>) result.get("slowest");
+        assertEquals("catalog.xml", slowest.get(0).get("name"));
+
+        controller.clear();
+        assertTrue(((List<?>) controller.traces().get("slowest")).isEmpty());
+    }
+}
@@ -0,0 +1,116 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TracerTest {
+
+    private final Tracer tracer = new Tracer();
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void nested_spans() {
+        try (Tracer.Span trace = tracer.startTrace("request", null)) {
+            trace.attribute("page", 1);
+            try (Tracer.Span fetch = Tracer.span("fetch")) {
+                fetch.attribute("bytes", 100);
+                try (Tracer.Span ignored = Tracer.span("connect")) {
+                    assertTrue(Tracer.traceparent().startsWith("00-" + trace.getTraceId() + "-"));
+                }
+            }
+            try (Tracer.Span ignored = Tracer.span("parse")) {
+                assertNotNull(Tracer.traceparent());
+            }
+        }
+        assertNull(Tracer.traceparent());
+
+        final Map<String, Object> trace = tracer.getSlowest().get(0).toMap();
+        assertEquals("request", trace.get("name"));
+        assertEquals(32, ((String) trace.get("traceId")).length());
+        assertNull(trace.get("parentId"));
+        assertEquals(1, ((Map<String, Object>) trace.get("attributes")).get("page"));
+
+        final List<Map<String, Object>> children = (List<Map<String, Object>>) trace.get("children");
+        assertEquals(2, children.size());
+        assertEquals("fetch", children.get(0).get("name"));
+        assertEquals("parse", children.get(1).get("name"));
+        assertEquals("connect", ((List<Map<String, Object>>) children.get(0).get("children")).get(0).get("name"));
+        assertTrue((Double) trace.get("durationMillis") >= (Double) children.get(0).get("durationMillis"));
+    }
+
+    /**
+     * A step runs in its own span, which is closed even if the step fails.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void span_step() {
+        final String[] traceparent = new String[1];
+        try (Tracer.Span trace = tracer.startTrace("request", null)) {
+            Tracer.span("connect", () -> traceparent[0] = Tracer.traceparent());
+            assertThrows(IOException.class, () -> Tracer.span("read", () -> {
+                throw new IOException("closed");
+            }));
+            // the trace is the current span again
+            assertEquals("00-" + trace.getTraceId() + "-" + trace.toMap().get("spanId") + "-01", Tracer.traceparent());
+            assertNotEquals(Tracer.traceparent(), traceparent[0]);
+        }
+
+        final List<Map<String, Object>> children = (List<Map<String, Object>>) tracer.getSlowest().get(0).toMap().get("children");
+        assertEquals("connect", children.get(0).get("name"));
+        assertEquals("read", children.get(1).get("name"));
+        assertTrue((Double) children.get(1).get("durationMillis") >= 0);
+    }
+
+    @Test
+    public void traceparent() {
+        try (Tracer.Span trace = tracer.startTrace("request", "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01")) {
+            assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", trace.getTraceId());
+            assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", Tracer.traceparent().substring(3, 35));
+        }
+        assertEquals("00f067aa0ba902b7", tracer.getSlowest().get(0).toMap().get("parentId"));
+
+        try (Tracer.Span trace = tracer.startTrace("request", "00-00000000000000000000000000000000-00f067aa0ba902b7-01")) {
+            assertNotEquals("00000000000000000000000000000000", trace.getTraceId());
+        }
+        try (Tracer.Span trace = tracer.startTrace("request", "invalid")) {
+            assertEquals(32, trace.getTraceId().length());
+        }
+    }
+
+    /**
+     * Without a running trace nothing is recorded.
+     */
+    @Test
+    public void span_without_trace() {
+        try (Tracer.Span span = Tracer.span("parse")) {
+            span.attribute("triples", 1);
+            assertNull(Tracer.traceparent());
+        }
+        assertEquals(0, tracer.getTraces());
+    }
+
+    @Test
+    public void slowest() throws InterruptedException {
+        tracer.slowest = 2;
+        for (long sleep : new long[]{5, 1, 20, 0, 10}) {
+            try (Tracer.Span trace = tracer.startTrace("request", null)) {
+                trace.attribute("sleep", sleep);
+                Thread.sleep(sleep);
+            }
+        }
+
+        final List<Tracer.Span> slowest = tracer.getSlowest();
+        assertEquals(5, tracer.getTraces());
+        assertEquals(2, slowest.size());
+        assertTrue(slowest.get(0).toMap().toString().contains("sleep=20"));
+        assertTrue(slowest.get(1).toMap().toString().contains("sleep=10"));
+
+        tracer.clear();
+        assertTrue(tracer.getSlowest().isEmpty());
+    }
+}
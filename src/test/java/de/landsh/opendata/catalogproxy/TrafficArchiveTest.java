@@ -0,0 +1,78 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrafficArchiveTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void record_and_find() throws Exception {
+        final TrafficArchive archive = new TrafficArchive(directory.resolve("archive"));
+        final Map<String, List<String>> headers = new HashMap<>();
+        headers.put(null, Collections.singletonList("HTTP/1.1 200 OK"));
+        headers.put("Content-Type", Collections.singletonList("application/rdf+xml"));
+        headers.put("Vary", Arrays.asList("Accept", "Accept-Encoding"));
+
+        archive.record("https://example.org/catalog.xml?page=1", 200, headers, 1234, "first".getBytes(StandardCharsets.UTF_8));
+        archive.record("https://example.org/catalog.xml?page=2", 200, headers, 10, "other".getBytes(StandardCharsets.UTF_8));
+        archive.record("https://example.org/catalog.xml?page=1", 200, headers, 20, "second".getBytes(StandardCharsets.UTF_8));
+
+        final TrafficArchive.Recording recording = archive.find("https://example.org/catalog.xml?page=1");
+        assertEquals("second", new String(recording.getBody(), StandardCharsets.UTF_8));
+        assertEquals(200, recording.getStatus());
+        assertEquals(20, recording.getElapsedMillis());
+        assertEquals("application/rdf+xml", recording.getHeader("content-type"));
+        assertEquals("Accept, Accept-Encoding", recording.getHeader("Vary"));
+        assertNull(recording.getHeader("ETag"));
+
+        assertNull(archive.find("https://example.org/catalog.xml?page=3"));
+    }
+
+    @Test
+    public void list() throws Exception {
+        final TrafficArchive archive = new TrafficArchive(directory);
+        assertTrue(new TrafficArchive(directory.resolve("missing")).list().isEmpty());
+
+        archive.record("https://example.org/a", 200, Collections.emptyMap(), 1, new byte[]{1});
+        archive.record("https://example.org/b", 503, Collections.emptyMap(), 2, new byte[0]);
+
+        final List<TrafficArchive.Recording> recordings = archive.list();
+        assertEquals(2, recordings.size());
+        assertEquals("https://example.org/a", recordings.get(0).getUrl());
+        assertEquals(503, recordings.get(1).getStatus());
+        assertTrue(recordings.get(1).getName().startsWith(TrafficArchive.urlHash("https://example.org/b")));
+    }
+
+    /**
+     * The sequence number grows beyond four digits without changing the order of recordings.
+     */
+    @Test
+    public void list_sequence() throws Exception {
+        final TrafficArchive archive = new TrafficArchive(directory);
+        archive.sequence.set(9999);
+
+        for (int i = 0; i < 3; i++) {
+            archive.record("https://example.org/" + i, 200, Collections.emptyMap(), 1, new byte[0]);
+        }
+
+        final List<TrafficArchive.Recording> recordings = archive.list();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("https://example.org/" + i, recordings.get(i).getUrl());
+        }
+        assertEquals(10001, recordings.get(2).getSequence());
+        assertTrue(recordings.get(2).getName().endsWith("-0000010001"));
+    }
+}
@@ -0,0 +1,90 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrafficReplayTest {
+
+    @TempDir
+    Path directory;
+
+    private byte[] resource(String name) throws Exception {
+        try (InputStream is = getClass().getResourceAsStream(name)) {
+            return StreamUtils.copyToByteArray(is);
+        }
+    }
+
+    private CatalogFilter catalogFilter() throws Exception {
+        final CatalogFilter catalogFilter = new CatalogFilter();
+        catalogFilter.setBaseURL("http://localhost:8080/");
+        catalogFilter.setReplaceURL(Collections.emptyList());
+        catalogFilter.afterPropertiesSet();
+        return catalogFilter;
+    }
+
+    @Test
+    public void run() throws Exception {
+        final TrafficArchive archive = new TrafficArchive(directory);
+        archive.record("https://example.org/catalog.xml?page=1", 200, Collections.emptyMap(), 100, resource("/catalog.xml"));
+        archive.record("https://example.org/catalog.xml?page=2", 200, Collections.emptyMap(), 200, resource("/with_collection.xml"));
+        archive.record("https://example.org/catalog.xml?page=3", 503, Collections.emptyMap(), 5, new byte[0]);
+        archive.record("https://example.org/catalog.xml?page=4", 200, Collections.emptyMap(), 5, "no RDF".getBytes(StandardCharsets.UTF_8));
+
+        final TrafficReplay.Report report = new TrafficReplay(archive, catalogFilter()).run(3);
+
+        final List<TrafficReplay.Page> pages = new ArrayList<>(report.getPages());
+        assertEquals(2, pages.size());
+        assertEquals(3, report.getFailures());
+        assertEquals("https://example.org/catalog.xml?page=1", pages.get(0).getUrl());
+        assertEquals(32, pages.get(0).getDigest().length());
+        assertTrue(pages.get(0).getOutputBytes() > 0);
+        assertTrue(report.getThroughput() > 0);
+        assertTrue(report.percentile(50) > 0);
+        assertTrue(report.percentile(99) >= report.percentile(50));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        report.print(new PrintStream(out, true, "UTF-8"));
+        final String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(text.contains("2 pages, 3 rounds, 3 failures"));
+        assertTrue(text.contains(pages.get(1).getDigest()));
+    }
+
+    /**
+     * The digest does not depend on blank node labels, so the same recording yields the same digest in every run.
+     */
+    @Test
+    public void digest_is_stable() throws Exception {
+        final TrafficArchive archive = new TrafficArchive(directory);
+        archive.record("https://example.org/catalog.xml", 200, Collections.emptyMap(), 1, resource("/with_collection.xml"));
+
+        final String first = new TrafficReplay(archive, catalogFilter()).run(1).getPages().iterator().next().getDigest();
+        final String second = new TrafficReplay(archive, catalogFilter()).run(1).getPages().iterator().next().getDigest();
+
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void percentile() {
+        final List<Long> nanos = new ArrayList<>();
+        for (long i = 1; i <= 100; i++) {
+            nanos.add(i * 1000000);
+        }
+
+        assertEquals(50.0, TrafficReplay.Page.percentile(nanos, 50));
+        assertEquals(99.0, TrafficReplay.Page.percentile(nanos, 99));
+        assertEquals(100.0, TrafficReplay.Page.percentile(nanos, 100));
+        assertEquals(0.0, TrafficReplay.Page.percentile(Collections.emptyList(), 50));
+    }
+}
@@ -0,0 +1,267 @@
+package de.landsh.opendata.catalogproxy;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockserver.client.MockServerClient;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.HttpStatusCode;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockserver.integration.ClientAndServer.startClientAndServer;
+import static org.mockserver.matchers.Times.once;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+public class UpstreamCatalogTest {
+    private static final String CATALOG = "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" xmlns:dcat=\"http://www.w3.org/ns/dcat#\"><dcat:Catalog rdf:about=\"https://opendata.schleswig-holstein.de\"></dcat:Catalog></rdf:RDF>";
+
+    private static ClientAndServer mockServer;
+    private final HedgeBudget hedgeBudget = new HedgeBudget();
+    private UpstreamCatalog upstreamCatalog;
+
+    @BeforeAll
+    public static void startServer() {
+        mockServer = startClientAndServer(1081);
+    }
+
+    @AfterAll
+    public static void stopServer() {
+        mockServer.stop();
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        final CatalogFilter catalogFilter = new CatalogFilter();
+        catalogFilter.setBaseURL("http://localhost:8080/");
+        catalogFilter.setReplaceURL(Collections.emptyList());
+        catalogFilter.afterPropertiesSet();
+
+        upstreamCatalog = new UpstreamCatalog(null, catalogFilter, new CatalogCache());
+        upstreamCatalog.remoteURL = "http://localhost:" + mockServer.getPort() + "/";
+        upstreamCatalog.hedgeRequests = true;
+        upstreamCatalog.hedgeMinDelay = 100;
+        upstreamCatalog.setHedgeBudget(hedgeBudget);
+        upstreamCatalog.afterPropertiesSet();
+
+        hedgeBudget.ratio = 1;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        upstreamCatalog.destroy();
+    }
+
+    private void respond(int page, HttpStatusCode status, long delayMillis) {
+        new MockServerClient("127.0.0.1", mockServer.getPort())
+                .when(request().withMethod("GET").withPath("/catalog.xml").withQueryStringParameter("page", String.valueOf(page)),
+                        once())
+                .respond(response().withStatusCode(status.code()).withBody(CATALOG.getBytes())
+                        .withDelay(TimeUnit.MILLISECONDS, delayMillis));
+    }
+
+    private String trainLatency(int page) throws IOException {
+        final String url = upstreamCatalog.buildURL(page, null, null, null);
+        for (int i = 0; i < 20; i++) {
+            upstreamCatalog.latencyTracker(url).add(10);
+        }
+        return url;
+    }
+
+    @Test
+    public void endpoint() {
+        assertEquals("https://example.org/catalog.xml?page&q",
+                UpstreamCatalog.endpoint("https://example.org/catalog.xml?page=3&q=wasser"));
+        assertEquals("https://example.org/catalog.xml", UpstreamCatalog.endpoint("https://example.org/catalog.xml"));
+    }
+
+    /**
+     * The slow first request is overtaken by the second one. The cancelled request is recorded with the time it has
+     * taken until then.
+     */
+    @Test
+    public void hedged_request_wins() throws Exception {
+        respond(21, HttpStatusCode.OK_200, 5000);
+        respond(21, HttpStatusCode.OK_200, 0);
+        final String url = trainLatency(21);
+
+        final long start = System.currentTimeMillis();
+        final byte[] result = upstreamCatalog.filter(url).getBody();
+
+        assertTrue(System.currentTimeMillis() - start < 4000);
+        assertTrue(new String(result).contains("rdf:RDF"));
+        assertEquals(1, upstreamCatalog.getHedges());
+        assertEquals(1, upstreamCatalog.getHedgeWins());
+        assertEquals(22, upstreamCatalog.latencyTracker(url).getCount());
+        assertTrue(upstreamCatalog.latencyTracker(url).percentile(100) >= 100);
+    }
+
+    @Test
+    public void no_hedge_without_budget() throws Exception {
+        hedgeBudget.ratio = 0;
+        respond(22, HttpStatusCode.OK_200, 300);
+        final String url = trainLatency(22);
+
+        upstreamCatalog.filter(url);
+
+        assertEquals(0, upstreamCatalog.getHedges());
+    }
+
+    /**
+     * Without enough samples the proxy does not know what a slow response is.
+     */
+    @Test
+    public void no_hedge_without_samples() throws Exception {
+        respond(23, HttpStatusCode.OK_200, 300);
+
+        upstreamCatalog.filter(upstreamCatalog.buildURL(23, null, null, null));
+
+        assertEquals(0, upstreamCatalog.getHedges());
+    }
+
+    @Test
+    public void skipped_datasets() throws Exception {
+        new MockServerClient("127.0.0.1", mockServer.getPort())
+                .when(request().withMethod("GET").withPath("/catalog.xml").withQueryStringParameter("page", "25"), once())
+                .respond(response().withStatusCode(200)
+                        .withBody(StreamUtils.copyToByteArray(getClass().getResourceAsStream("/broken_datasets.xml"))));
+
+        final CatalogCache.Content result = upstreamCatalog.filter(upstreamCatalog.buildURL(25, null, null, null));
+
+        assertEquals("2", result.getHeaders().get(UpstreamCatalog.SKIPPED_DATASETS_HEADER));
+        assertEquals(2, upstreamCatalog.getSkippedDatasets());
+    }
+
+    /**
+     * A streamed page is parsed strictly. Only if that fails, it is fetched again to skip the broken datasets.
+     */
+    @Test
+    public void skipped_datasets_streaming() throws Exception {
+        upstreamCatalog.hedgeRequests = false;
+        respondBroken(30);
+        respondBroken(30);
+
+        final CatalogCache.Content result = upstreamCatalog.filter(upstreamCatalog.buildURL(30, null, null, null));
+
+        assertEquals("2", result.getHeaders().get(UpstreamCatalog.SKIPPED_DATASETS_HEADER));
+        assertEquals(2, upstreamCatalog.getSkippedDatasets());
+        assertEquals(0, upstreamCatalog.getMemoryBudget().getUsed());
+    }
+
+    @Test
+    public void invalid_catalog_streaming() throws Exception {
+        upstreamCatalog.hedgeRequests = false;
+        upstreamCatalog.getCatalogFilter().maxSkippedDatasets = 0;
+        respondBroken(31);
+
+        assertThrows(UpstreamCatalog.InvalidCatalogException.class,
+                () -> upstreamCatalog.filter(upstreamCatalog.buildURL(31, null, null, null)));
+        assertEquals(CircuitBreaker.State.CLOSED, upstreamCatalog.getCircuitBreaker().getState());
+    }
+
+    private void respondBroken(int page) throws IOException {
+        new MockServerClient("127.0.0.1", mockServer.getPort())
+                .when(request().withMethod("GET").withPath("/catalog.xml").withQueryStringParameter("page", String.valueOf(page)),
+                        once())
+                .respond(response().withStatusCode(200)
+                        .withBody(StreamUtils.copyToByteArray(getClass().getResourceAsStream("/broken_datasets.xml"))));
+    }
+
+    /**
+     * A page larger than maxPageBytes is aborted before it is parsed.
+     */
+    @Test
+    public void page_too_large() throws Exception {
+        upstreamCatalog.hedgeRequests = false;
+        upstreamCatalog.getMemoryBudget().maxPageBytes = 100;
+        respond(26, HttpStatusCode.OK_200, 0);
+
+        assertThrows(MemoryBudget.PageTooLargeException.class,
+                () -> upstreamCatalog.filter(upstreamCatalog.buildURL(26, null, null, null)));
+        assertEquals(CircuitBreaker.State.CLOSED, upstreamCatalog.getCircuitBreaker().getState());
+        assertEquals(0, upstreamCatalog.getMemoryBudget().getUsed());
+    }
+
+    @Test
+    public void not_enough_memory() throws Exception {
+        upstreamCatalog.hedgeRequests = false;
+        upstreamCatalog.getMemoryBudget().maxBytes = 1000;
+        upstreamCatalog.getMemoryBudget().maxPageBytes = 10000;
+        upstreamCatalog.getMemoryBudget().queueTimeout = 10;
+        respond(27, HttpStatusCode.OK_200, 0);
+
+        assertThrows(MemoryBudget.RejectedException.class,
+                () -> upstreamCatalog.filter(upstreamCatalog.buildURL(27, null, null, null)));
+        assertEquals(0, upstreamCatalog.getMemoryBudget().getUsed());
+    }
+
+    /**
+     * The time spent waiting for a free upstream connection does not count as a slow response of the upstream catalog.
+     */
+    @Test
+    public void circuit_ignores_connection_wait() throws Exception {
+        upstreamCatalog.hedgeRequests = false;
+        upstreamCatalog.maxConnections = 1;
+        upstreamCatalog.circuitFailureThreshold = 1;
+        upstreamCatalog.circuitSlowCallMillis = 200;
+        upstreamCatalog.afterPropertiesSet();
+        respond(28, HttpStatusCode.OK_200, 0);
+        assertTrue(upstreamCatalog.connections.tryAcquire());
+        final Thread holder = new Thread(() -> {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            upstreamCatalog.connections.release();
+        });
+        holder.start();
+
+        upstreamCatalog.filter(upstreamCatalog.buildURL(28, null, null, null));
+
+        holder.join();
+        assertEquals(CircuitBreaker.State.CLOSED, upstreamCatalog.getCircuitBreaker().getState());
+        assertEquals(0L, upstreamCatalog.getCircuitBreaker().getMetrics().get("failures"));
+    }
+
+    /**
+     * A request that gets no upstream connection is not a failure of the upstream catalog.
+     */
+    @Test
+    public void circuit_ignores_connection_wait_timeout() throws Exception {
+        upstreamCatalog.hedgeRequests = false;
+        upstreamCatalog.maxConnections = 1;
+        upstreamCatalog.circuitFailureThreshold = 1;
+        upstreamCatalog.connectionWaitTimeout = 10;
+        upstreamCatalog.afterPropertiesSet();
+        assertTrue(upstreamCatalog.connections.tryAcquire());
+
+        assertThrows(IOException.class, () -> upstreamCatalog.filter(upstreamCatalog.buildURL(29, null, null, null)));
+
+        assertEquals(CircuitBreaker.State.CLOSED, upstreamCatalog.getCircuitBreaker().getState());
+        upstreamCatalog.connections.release();
+    }
+
+    @Test
+    public void upstream_error() throws Exception {
+        respond(24, HttpStatusCode.SERVICE_UNAVAILABLE_503, 0);
+        final String url = trainLatency(24);
+
+        assertThrows(IOException.class, () -> upstreamCatalog.filter(url));
+    }
+
+    @Test
+    public void upstream_not_reachable() throws Exception {
+        upstreamCatalog.remoteURL = "http://localhost:1/";
+        final String url = trainLatency(1);
+
+        assertThrows(IOException.class, () -> upstreamCatalog.filter(url));
+    }
+}